@@ -0,0 +1,55 @@
+package edu.eci.arep.classes;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Recovery of a persistent manager from its snapshot and its log, one cold run per fork.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class RecoveryBenchmark {
+    @Param({"1000000", "10000000"})
+    int size;
+
+    Path directory;
+
+    /**
+     * Writes the tasks once: half of them end in the snapshot and the other half only in the log.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("recovery");
+        TaskManager manager = TaskManager.open(directory, TaskJournal.Sync.OS, 10, Long.MAX_VALUE);
+        for (int i = 0; i < size; i++) {
+            if (i == size / 2) manager.snapshot();
+            manager.addTask("task " + i, "description " + i);
+        }
+        manager.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(file);
+        }
+    }
+
+    @Benchmark
+    public int recover() throws IOException {
+        TaskManager manager = TaskManager.open(directory, TaskJournal.Sync.OS, 10, Long.MAX_VALUE);
+        int recovered = manager.size();
+        manager.close();
+        return recovered;
+    }
+}
@@ -0,0 +1,59 @@
+package edu.eci.arep.classes;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adds and searches by name on managers that already hold from a thousand to a million tasks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TaskManagerBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    int size;
+
+    TaskManager manager;
+
+    /**
+     * A new manager per iteration, so the adds of one iteration do not make the next one bigger.
+     */
+    @Setup(Level.Iteration)
+    public void setUp() {
+        manager = new TaskManager();
+        for (int i = 0; i < size; i++) manager.addTask("task " + i + (i % 100 == 0 ? " release" : ""), "description " + i);
+    }
+
+    @Benchmark
+    public Task addTask() {
+        return manager.addTask("new task", "added by the benchmark");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Task addTaskContended() {
+        return manager.addTask("new task", "added by the benchmark");
+    }
+
+    //matches one task in a hundred through the trigram index
+    @Benchmark
+    public List<Task> getTasksByNameRare() {
+        return manager.getTasksByName("release");
+    }
+
+    //too short for the index, every name is compared
+    @Benchmark
+    public List<Task> getTasksByNameShort() {
+        return manager.getTasksByName("k 7");
+    }
+
+    @Benchmark
+    public TaskPage getTasksPage() {
+        return manager.getTasks(size / 2, 50);
+    }
+}
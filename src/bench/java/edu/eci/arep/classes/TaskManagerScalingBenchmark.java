@@ -0,0 +1,101 @@
+package edu.eci.arep.classes;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the adds and of the snapshot reads from one to eight threads, and of readers running
+ * next to a writer. The adds serialize on a short lock, so their total throughput should stay flat;
+ * the reads never lock, so theirs should grow with the threads and not drop while a writer adds tasks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TaskManagerScalingBenchmark {
+    @Param({"1000", "10000"})
+    int size;
+
+    TaskManager manager;
+
+    /**
+     * A new manager per iteration, so the adds of one iteration do not make the reads of the next one slower.
+     */
+    @Setup(Level.Iteration)
+    public void setUp() {
+        manager = new TaskManager();
+        for (int i = 0; i < size; i++) manager.addTask("task " + i, "description " + i);
+    }
+
+    private Task add() {
+        return manager.addTask("new task", "added by the benchmark");
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Task add1() {
+        return add();
+    }
+
+    @Benchmark
+    @Threads(2)
+    public Task add2() {
+        return add();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Task add4() {
+        return add();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Task add8() {
+        return add();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public List<Task> getTasks1() {
+        return manager.getTasks();
+    }
+
+    @Benchmark
+    @Threads(2)
+    public List<Task> getTasks2() {
+        return manager.getTasks();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public List<Task> getTasks4() {
+        return manager.getTasks();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public List<Task> getTasks8() {
+        return manager.getTasks();
+    }
+
+    //three readers and a writer on the same manager, the readers are reported apart from the writer;
+    //they read a page of fixed size, since a copy of every task would grow with the adds of the writer
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public TaskPage mixedRead() {
+        return manager.getTasks(size / 2, 50);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public Task mixedAdd() {
+        return add();
+    }
+}
@@ -0,0 +1,67 @@
+package edu.eci.arep.helpers;
+
+import edu.eci.arep.classes.Task;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Serialization of Task lists and primitive arrays, and parsing of request bodies.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+    @Param({"10", "1000", "100000"})
+    int size;
+
+    List<Task> tasks;
+    int[] numbers;
+    byte[] smallBody;
+    byte[] largeBody;
+    //discards the bytes, so only the serialization is measured
+    final OutputStream sink = OutputStream.nullOutputStream();
+
+    @Setup
+    public void setUp() {
+        tasks = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) tasks.add(new Task("task " + i, "description of the task " + i, i + 1));
+        numbers = IntStream.range(0, size).toArray();
+        smallBody = "{\"name\":\"task\",\"description\":\"a small body\"}".getBytes(StandardCharsets.UTF_8);
+        largeBody = JsonConverter.toJson(tasks).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String toJson() {
+        return JsonConverter.toJson(tasks);
+    }
+
+    @Benchmark
+    public void writeJson() throws IOException {
+        JsonConverter.writeJson(tasks, sink);
+    }
+
+    @Benchmark
+    public void writeIntArray() throws IOException {
+        JsonConverter.writeJson(numbers, sink);
+    }
+
+    @Benchmark
+    public Task readSmallBody() {
+        return JsonReader.read(smallBody, Task.class);
+    }
+
+    @Benchmark
+    public Object readLargeBody() {
+        return new JsonReader(largeBody, 0, largeBody.length, Integer.MAX_VALUE, JsonReader.DEFAULT_MAX_DEPTH).readValue(Object.class);
+    }
+}
@@ -0,0 +1,91 @@
+package edu.eci.arep.httpserver;
+
+import edu.eci.arep.classes.Task;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * A whole request in process: its bytes are parsed, routed, handled and the response is written
+ * to a stream that discards it, as the blocking engine does with the stream of a socket.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EndToEndBenchmark {
+    byte[] text;
+    byte[] json;
+    byte[] post;
+    byte[] numbers;
+    byte[] notFound;
+    RequestParser parser;
+    final Router.Params params = new Router.Params();
+    final OutputStream socket = OutputStream.nullOutputStream();
+
+    @Setup
+    public void setUp() {
+        List<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < 100; i++) tasks.add(new Task("task " + i, "description of the task " + i, i + 1));
+        HttpServer.get("/bench/hello", (req, res) -> res.body("Hello " + req.getValues("name")));
+        HttpServer.get("/bench/tasks", (req, res) -> res.body(tasks));
+        HttpServer.get("/bench/numbers", (req, res) -> res.body(IntStream.rangeClosed(1, 100_000)));
+        HttpServer.post("/bench/tasks", (req, res) -> res.status(201).body(req.getBody(Task.class)));
+        text = request("GET /app/bench/hello?name=bench HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        json = request("GET /app/bench/tasks HTTP/1.1\r\nHost: localhost\r\nAccept-Encoding: identity\r\n\r\n");
+        String body = "{\"name\":\"bench\",\"description\":\"posted by the benchmark\"}";
+        post = request("POST /app/bench/tasks HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/json\r\nContent-Length: "
+                + body.length() + "\r\n\r\n" + body);
+        numbers = request("GET /app/bench/numbers HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        notFound = request("GET /missing HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        parser = new RequestParser(8 * 1024, 32 * 1024, 1024 * 1024);
+    }
+
+    private static byte[] request(String raw) {
+        return raw.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private boolean serve(byte[] request) throws IOException {
+        try {
+            HttpServer.parse(parser, request, 0, request.length);
+        } catch (RequestException e) {
+            throw new IllegalStateException(e);
+        }
+        return HttpServer.manageRequest(parser.method, parser.target, parser.http11, parser.headers, parser.body,
+                socket, null, true, System.nanoTime(), params);
+    }
+
+    @Benchmark
+    public boolean text() throws IOException {
+        return serve(text);
+    }
+
+    @Benchmark
+    public boolean jsonList() throws IOException {
+        return serve(json);
+    }
+
+    @Benchmark
+    public boolean postJson() throws IOException {
+        return serve(post);
+    }
+
+    //too big for the buffer of the writer, sent in chunks while it is serialized
+    @Benchmark
+    public boolean streamedNumbers() throws IOException {
+        return serve(numbers);
+    }
+
+    @Benchmark
+    public boolean notFound() throws IOException {
+        return serve(notFound);
+    }
+}
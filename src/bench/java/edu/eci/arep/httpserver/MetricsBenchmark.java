@@ -0,0 +1,75 @@
+package edu.eci.arep.httpserver;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the instrumentation added to every request: a latency histogram, the clock reads around
+ * a stage, and an entry of the access log. The contended variants share the counters between threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+    Metrics metrics;
+    AccessLog log;
+    Path directory;
+
+    @Setup
+    public void setUp() throws IOException {
+        metrics = new Metrics();
+        metrics.record("/tasks/{id}", "GET", 200, 1000);
+        directory = Files.createTempDirectory("bench-log");
+        log = new AccessLog(directory.resolve("access.log"), AccessLog.Level.ALL, 1.0, 64 * 1024 * 1024, 1, 64 * 1024);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        log.close();
+        Files.deleteIfExists(directory.resolve("access.log.1"));
+        Files.deleteIfExists(directory.resolve("access.log"));
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public void recordStage() {
+        metrics.record(Metrics.Stage.HANDLER, 12_345);
+    }
+
+    @Benchmark
+    public void recordRoute() {
+        metrics.record("/tasks/{id}", "GET", 200, 12_345);
+    }
+
+    //what a stage adds to a request: two clock reads and a record
+    @Benchmark
+    public void timedStage() {
+        long started = System.nanoTime();
+        metrics.record(Metrics.Stage.PARSE, System.nanoTime() - started);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordRouteContended() {
+        metrics.record("/tasks/{id}", "GET", 200, 12_345);
+    }
+
+    //queued or dropped, it never waits for the writer
+    @Benchmark
+    public boolean accessLog() {
+        return log.log("GET", "/app/tasks/42", 200, 128, 12_345);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean accessLogContended() {
+        return log.log("GET", "/app/tasks/42", 200, 128, 12_345);
+    }
+}
@@ -0,0 +1,90 @@
+package edu.eci.arep.httpserver;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of a request from its bytes, and the lookups of its query parameters and headers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+    static final String HEAD = "GET /app/tasks?name=write%20tests&size=20&after=100 HTTP/1.1\r\n"
+            + "Host: localhost:35000\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0 Safari/537.36\r\n"
+            + "Accept: application/json, text/plain, */*\r\n"
+            + "Accept-Encoding: gzip, deflate, br\r\n"
+            + "Accept-Language: en-US,en;q=0.9,es;q=0.8\r\n"
+            + "Cookie: session=4f0c8a1e9b2d4c7f8e1a3b5c7d9e0f12; theme=dark\r\n"
+            + "Connection: keep-alive\r\n";
+
+    byte[] get;
+    byte[] post;
+    RequestParser parser;
+    URI uri;
+    Map<String, String> headers;
+
+    @Setup
+    public void setUp() throws Exception {
+        get = (HEAD + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        String body = "{\"name\":\"write tests\",\"description\":\"cover the parser\"}";
+        post = (HEAD.replace("GET", "POST") + "Content-Type: application/json\r\nContent-Length: " + body.length() + "\r\n\r\n" + body)
+                .getBytes(StandardCharsets.ISO_8859_1);
+        parser = new RequestParser(8 * 1024, 32 * 1024, 1024 * 1024);
+        parser.parse(get, 0, get.length);
+        headers = parser.headers;
+        uri = new URI("/app/tasks?name=write%20tests&size=20&after=100");
+    }
+
+    @Benchmark
+    public int parseGet() throws RequestException {
+        return parser.parse(get, 0, get.length);
+    }
+
+    @Benchmark
+    public int parsePost() throws RequestException {
+        return parser.parse(post, 0, post.length);
+    }
+
+    //the request arrives in two reads, the second call resumes the scan
+    @Benchmark
+    public int parseSplit() throws RequestException {
+        parser.parse(get, 0, get.length / 2);
+        return parser.parse(get, 0, get.length);
+    }
+
+    @Benchmark
+    public String queryValue() {
+        return new HttpRequest(uri).getValues("name");
+    }
+
+    @Benchmark
+    public List<String> queryAllValues() {
+        return new HttpRequest(uri).getAllValues("after");
+    }
+
+    @Benchmark
+    public Map<String, List<String>> queryParameters() {
+        return new HttpRequest(uri).getParameters();
+    }
+
+    @Benchmark
+    public URI parseUri() throws URISyntaxException {
+        return new URI("/app/tasks?name=write%20tests&size=20&after=100");
+    }
+
+    @Benchmark
+    public String header() {
+        return headers.get("accept-encoding");
+    }
+}
@@ -0,0 +1,91 @@
+package edu.eci.arep.httpserver;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Completion of the headers of a response, the encoding of its status line and headers,
+ * and the write of a small response to a loopback socket.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseBenchmark {
+    static final Map<String, String> REQUEST_HEADERS = Map.of("accept-encoding", "gzip, deflate", "connection", "keep-alive");
+
+    byte[] body;
+    HttpResponse complete;
+    //a loopback connection whose bytes are read and discarded by another thread
+    ServerSocketChannel server;
+    SocketChannel sink;
+    Thread drain;
+
+    @Setup
+    public void setUp() throws IOException {
+        body = new byte[512];
+        complete = response();
+        HttpServer.completeResponse(complete, REQUEST_HEADERS, true);
+        server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        sink = SocketChannel.open(server.getLocalAddress());
+        SocketChannel peer = server.accept();
+        drain = Thread.ofPlatform().daemon().start(() -> {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+            try {
+                while (peer.read(buffer.clear()) >= 0) {}
+            } catch (IOException ignored) {
+            }
+        });
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        sink.close();
+        server.close();
+    }
+
+    HttpResponse response() {
+        return new HttpResponse(200, body).contentType("application/json")
+                .header("Cache-Control", "no-cache")
+                .header("ETag", "\"5d41402abc4b2a76b9719d911017c592\"");
+    }
+
+    @Benchmark
+    public int responseHead() {
+        ByteBuffer head = ResponseHead.encode(complete);
+        int length = head.remaining();
+        ResponseHead.release(head);
+        return length;
+    }
+
+    @Benchmark
+    public int completeAndEncode() {
+        HttpResponse response = response();
+        HttpServer.completeResponse(response, REQUEST_HEADERS, true);
+        ByteBuffer head = ResponseHead.encode(response);
+        int length = head.remaining();
+        ResponseHead.release(head);
+        return length;
+    }
+
+    //the head and the body of a small response written to a socket, as the blocking engine does
+    @Benchmark
+    public long gatheringWrite() throws IOException {
+        ByteBuffer head = ResponseHead.encode(complete);
+        try {
+            return sink.write(new ByteBuffer[]{head, ByteBuffer.wrap(body)});
+        } finally {
+            ResponseHead.release(head);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package edu.eci.arep.httpserver;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups in the route trie, with a number of registered routes similar to a small API.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouterBenchmark {
+    @Param({"10", "100"})
+    int routes;
+
+    Router router;
+    Router.Params bounds;
+
+    @Setup
+    public void setUp() {
+        router = new Router();
+        Service service = (req, res) -> res;
+        for (int i = 0; i < routes; i++) {
+            router.add("GET", "/resource" + i, service);
+            router.add("GET", "/resource" + i + "/{id}", service);
+            router.add("POST", "/resource" + i + "/{id}/items/{item}", service);
+        }
+        router.compile();
+        bounds = new Router.Params();
+    }
+
+    @Benchmark
+    public Router.Route staticRoute() {
+        return router.find("/app/resource7", 4, bounds);
+    }
+
+    @Benchmark
+    public Router.Route paramRoute() {
+        return router.find("/app/resource7/42/items/9", 4, bounds);
+    }
+
+    @Benchmark
+    public Router.Route missingRoute() {
+        return router.find("/app/unknown/42", 4, bounds);
+    }
+}
@@ -1,11 +1,14 @@
 package edu.eci.arep;
 
 import edu.eci.arep.classes.Task;
+import edu.eci.arep.classes.TaskJournal;
 import edu.eci.arep.classes.TaskManager;
+import edu.eci.arep.httpserver.AccessLog;
 
-import java.util.ArrayList;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.IntStream;
 
 import static edu.eci.arep.classes.TaskManager.getTaskManager;
 import static edu.eci.arep.httpserver.HttpServer.*;
@@ -13,6 +16,16 @@ import static edu.eci.arep.httpserver.HttpServer.*;
 public class Main {
     public static void main(String[] args) {
         try{
+            //keep the tasks on disk when a directory is given with -Dtasks.dir
+            String tasksDir = System.getProperty("tasks.dir");
+            if (tasksDir != null) {
+                TaskManager.open(Path.of(tasksDir), TaskJournal.Sync.BATCHED, 10, 1000000);
+            }
+            //write an access log when a file is given with -Daccess.log
+            String accessLogFile = System.getProperty("access.log");
+            if (accessLogFile != null) {
+                accessLog(Path.of(accessLogFile), AccessLog.Level.ALL, 1.0, 64 * 1024 * 1024, 5);
+            }
             //set the directory of static files
             staticfiles("/resources");
             //value of pi
@@ -27,31 +40,64 @@ public class Main {
                 }
                 return resp.body("Hello " + value).contentType("text/html");
             });
-            //return list of tasks
+            //return list of tasks, by pages when limit or cursor are given and as NDJSON when format=ndjson
             get("/tasks", (req, res) -> {
                 String param = req.getValues("name");
                 if (param == null) {
                     return res.status(400).body("Missing filter parameter");
                 }
+                String filter = param.equals("All") ? null : param;
+                String limit = req.getValues("limit");
+                String cursor = req.getValues("cursor");
+                try {
+                    int after = cursor == null ? 0 : Integer.parseInt(cursor);
+                    if ("ndjson".equals(req.getValues("format"))) {
+                        return res.body(getTaskManager().iterateTasks(filter, after)).contentType("application/x-ndjson");
+                    }
+                    if (limit != null || cursor != null) {
+                        int size = limit == null ? 100 : Integer.parseInt(limit);
+                        return res.body(getTaskManager().getTasksByName(filter, after, size));
+                    }
+                } catch (IllegalArgumentException e) {
+                    return res.status(400).body("Invalid limit or cursor");
+                }
                 List<Task> tasks;
-                if(!param.equals("All")){
+                if(filter != null){
                     tasks = getTaskManager().getTasksByName(param);
                 }else{
                     tasks = getTaskManager().getTasks();
                 }
                 return res.body(tasks);
             });
-            //return first n numbers in a list
+            //return a task by its id
+            get("/tasks/{id}", (req, res) -> {
+                Task task;
+                try {
+                    task = getTaskManager().getTask(Integer.parseInt(req.getParam("id")));
+                } catch (NumberFormatException e) {
+                    return res.status(400).body("Invalid task id");
+                }
+                if (task == null) {
+                    return res.status(404).body("Task not found");
+                }
+                return res.body(task);
+            });
+            //save a task sent as JSON
+            post("/saveTask", (req, res) -> {
+                Task values = req.getBody(Task.class);
+                if (values == null || values.getName() == null || values.getName().isEmpty()
+                        || values.getDescription() == null || values.getDescription().isEmpty()) {
+                    return res.status(400).body("Missing values, Task Name and Task Description are required");
+                }
+                return res.body(getTaskManager().addTask(values.getName(), values.getDescription()));
+            });
+            //return first n numbers in a list, the numbers are written without boxing them
             get("/numbers", (request, response) -> {
                 String param = request.getValues("n");
                 if(param == null){
                     return response.status(400).body("Missing n parameter");
                 }
-                List<Integer> list = new ArrayList<>();
-                for(int i=1;i<=Integer.parseInt(param);i++){
-                    list.add(i);
-                }
-                return response.body(list);
+                return response.body(IntStream.rangeClosed(1, Integer.parseInt(param)));
             });
 
             start();
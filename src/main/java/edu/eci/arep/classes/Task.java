@@ -4,6 +4,13 @@ public class Task {
     int id;
     String name;
     String description;
+    //manager that indexes the name of the task, and the name as it is indexed, read without a lock by the short searches
+    transient TaskManager owner;
+    transient volatile String foldedName;
+
+    //used when a task is read from JSON
+    Task() {
+    }
 
     public Task(String name, String description, int id) {
         this.name = name;
@@ -16,11 +23,21 @@ public class Task {
     public String getDescription() {
         return description;
     }
+    /**
+     * Changes the description of the task, it is logged when its manager is persistent.
+     * @param description new description of the task
+     */
     public void setDescription(String description) {
-        this.description = description;
+        if (owner != null) owner.describe(this, description);
+        else this.description = description;
     }
+    /**
+     * Changes the name of the task, the search index of its manager is updated and the change is logged when it is persistent.
+     * @param name new name of the task
+     */
     public void setName(String name) {
-        this.name = name;
+        if (owner != null) owner.rename(this, name);
+        else this.name = name;
     }
     public int getId() {
         return id;    }
@@ -0,0 +1,522 @@
+package edu.eci.arep.classes;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead log of the changes of a TaskManager.
+ * Every change is encoded into a shared buffer and a background thread writes the buffer to the
+ * current log file, so the changes that arrive while a write is in progress are written and synced
+ * together in the next one (group commit). Each record carries its length and a CRC32C checksum,
+ * a record torn by a crash is detected and discarded on recovery.
+ * After a number of records the log is rotated to a new file and a snapshot of every task is written,
+ * then the older log files are deleted. The rotation happens while no task is being added, so the tasks
+ * counted by the snapshot are exactly the ones logged before the new file. The snapshot is then written
+ * while changes keep arriving, that is safe because the changes are replayed in order and each one sets
+ * values instead of modifying them.
+ */
+public class TaskJournal implements Closeable {
+    /**
+     * When the log is synced to the disk.
+     */
+    public enum Sync {
+        //a change returns once it is on the disk, concurrent changes share the same sync
+        ALWAYS,
+        //the log is written and synced every interval, a crash can lose the changes of the last interval
+        BATCHED,
+        //the log is written every interval and the operating system decides when it reaches the disk
+        OS
+    }
+
+    static final byte ADD = 1;
+    static final byte NAME = 2;
+    static final byte DESCRIPTION = 3;
+    private static final int SNAPSHOT_MAGIC = 0x5441534B;
+    private static final String SNAPSHOT = "tasks.snapshot";
+    private static final String LOG_PREFIX = "journal-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final int HEADER = 8;
+    private static final int MAP_WINDOW = 64 * 1024 * 1024;
+    //appends wait while this many bytes are waiting to be written
+    private static final int MAX_PENDING = 16 * 1024 * 1024;
+
+    private final Path directory;
+    private final Sync sync;
+    private final long intervalNanos;
+    private final long snapshotEvery;
+    private final TaskManager manager;
+
+    //buffer of the records not written yet, guarded by lock
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pendingChanged = lock.newCondition();
+    private final Condition durableChanged = lock.newCondition();
+    private byte[] pending = new byte[64 * 1024];
+    private byte[] spare = new byte[64 * 1024];
+    private int pendingSize;
+    private long appended;
+    private long durable;
+    private volatile long sinceSnapshot;
+    private IOException failure;
+    private boolean closing;
+
+    //current log file, guarded by channelLock
+    private final ReentrantLock channelLock = new ReentrantLock();
+    private FileChannel channel;
+    private long generation;
+    private final AtomicBoolean snapshotting = new AtomicBoolean();
+    //snapshot started by the writer, close waits for it; and the error of the last one that failed
+    private volatile Thread snapshotter;
+    private volatile IOException snapshotFailure;
+    private final Thread writer;
+    private final CRC32C crc = new CRC32C();
+
+    private TaskJournal(Path directory, Sync sync, long intervalMillis, long snapshotEvery, TaskManager manager, long generation) throws IOException {
+        this.directory = directory;
+        this.sync = sync;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.snapshotEvery = snapshotEvery;
+        this.manager = manager;
+        this.generation = generation;
+        this.channel = openLog(generation);
+        this.writer = Thread.ofPlatform().daemon().name("task-journal").start(this::writeLoop);
+    }
+
+    /**
+     * Recovers the tasks of a directory into an empty manager and starts logging its changes.
+     * @param directory directory of the snapshot and the log files, created if it does not exist
+     * @param sync when the log is synced to the disk
+     * @param intervalMillis interval of the BATCHED and OS policies
+     * @param snapshotEvery number of records after which a snapshot is written and the log is truncated
+     * @param manager empty manager that receives the tasks
+     * @return journal of the manager
+     * @throws IOException if the files cannot be read or are corrupted
+     */
+    static TaskJournal open(Path directory, Sync sync, long intervalMillis, long snapshotEvery, TaskManager manager) throws IOException {
+        Files.createDirectories(directory);
+        long first = 0;
+        Path snapshot = directory.resolve(SNAPSHOT);
+        if (Files.exists(snapshot)) first = replaySnapshot(snapshot, manager);
+        List<Long> generations = generations(directory);
+        long last = first;
+        for (int i = 0; i < generations.size(); i++) {
+            long generation = generations.get(i);
+            if (generation < first) continue;
+            replayLog(logPath(directory, generation), manager, i == generations.size() - 1);
+            last = generation;
+        }
+        return new TaskJournal(directory, sync, intervalMillis, snapshotEvery, manager, last + 1);
+    }
+
+    /**
+     * Adds a change to the log. It is written by the background thread, await makes the caller wait for it.
+     * @param type ADD, NAME or DESCRIPTION
+     * @param id id of the task
+     * @param name name of the task, only for ADD and NAME
+     * @param description description of the task, only for ADD and DESCRIPTION
+     * @return sequence number of the change
+     * @throws IllegalStateException if the journal is closed
+     * @throws UncheckedIOException if a previous write failed
+     */
+    long append(byte type, int id, String name, String description) {
+        byte[] nameBytes = type == DESCRIPTION ? null : bytes(name);
+        byte[] descriptionBytes = type == NAME ? null : bytes(description);
+        int payload = 1 + 4 + (type == DESCRIPTION ? 0 : 4 + length(nameBytes)) + (type == NAME ? 0 : 4 + length(descriptionBytes));
+        lock.lock();
+        try {
+            while (pendingSize > MAX_PENDING && !closing && failure == null) pendingChanged.awaitUninterruptibly();
+            if (closing) throw new IllegalStateException("Task journal is closed");
+            if (failure != null) throw new UncheckedIOException(failure);
+            ensure(HEADER + payload);
+            int start = pendingSize;
+            pendingSize += HEADER;
+            pending[pendingSize++] = type;
+            putInt(id);
+            if (type != DESCRIPTION) putString(nameBytes);
+            if (type != NAME) putString(descriptionBytes);
+            crc.reset();
+            crc.update(pending, start + HEADER, payload);
+            ByteBuffer.wrap(pending, start, HEADER).putInt(payload).putInt((int) crc.getValue());
+            if (start == 0) pendingChanged.signalAll();
+            sinceSnapshot++;
+            return ++appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until a change is on the disk when the policy is ALWAYS, with the other policies it returns at once.
+     * @param sequence sequence number returned by append
+     * @throws UncheckedIOException if the change could not be written
+     */
+    void await(long sequence) {
+        if (sync != Sync.ALWAYS) return;
+        lock.lock();
+        try {
+            while (durable < sequence && failure == null) durableChanged.awaitUninterruptibly();
+            if (durable < sequence) throw new UncheckedIOException(failure);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            lock.lock();
+            try {
+                //with ALWAYS the records are written as soon as they arrive, the ones that arrive meanwhile form the next group
+                while (sync == Sync.ALWAYS && pendingSize == 0 && !closing) pendingChanged.awaitUninterruptibly();
+                //the other policies wait for the interval, close signals instead of interrupting,
+                //since an interrupt during a write would close the channel
+                long remaining = sync == Sync.ALWAYS ? 0 : intervalNanos;
+                while (remaining > 0 && !closing) {
+                    try {
+                        remaining = pendingChanged.awaitNanos(remaining);
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+                if (closing) return;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                writePending();
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+            if (sinceSnapshot >= snapshotEvery && snapshotting.compareAndSet(false, true)) {
+                snapshotter = Thread.ofVirtual().name("task-snapshot").start(() -> {
+                    try {
+                        writeSnapshot();
+                    } catch (IOException e) {
+                        snapshotFailure = e;
+                        System.err.println("Task snapshot failed: " + e);
+                    } finally {
+                        snapshotting.set(false);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Writes the pending records to the current log file in one write, synced unless the policy is OS.
+     * @throws IOException if an error occurs while writing
+     */
+    private void writePending() throws IOException {
+        channelLock.lock();
+        try {
+            byte[] buffer;
+            int size;
+            long sequence;
+            lock.lock();
+            try {
+                buffer = pending;
+                size = pendingSize;
+                sequence = appended;
+                pending = spare;
+                pendingSize = 0;
+                pendingChanged.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (size > 0) {
+                ByteBuffer data = ByteBuffer.wrap(buffer, 0, size);
+                while (data.hasRemaining()) channel.write(data);
+                if (sync != Sync.OS) channel.force(false);
+            }
+            lock.lock();
+            try {
+                spare = buffer;
+                durable = sequence;
+                durableChanged.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            channelLock.unlock();
+        }
+    }
+
+    private void fail(IOException e) {
+        lock.lock();
+        try {
+            failure = e;
+            pendingChanged.signalAll();
+            durableChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes a snapshot of every task and deletes the log files it replaces.
+     * The log is first rotated, so every change after the rotation is in the new files
+     * and is replayed over the snapshot even if the snapshot already saw it.
+     * @throws IOException if an error occurs while writing the snapshot
+     */
+    void writeSnapshot() throws IOException {
+        long first;
+        int count;
+        //no add can be between its record and its slot, so the tasks counted are the ones logged before the rotation
+        manager.addLock.lock();
+        channelLock.lock();
+        try {
+            writePending();
+            channel.force(true);
+            channel.close();
+            first = ++generation;
+            channel = openLog(first);
+            count = manager.size();
+            lock.lock();
+            try {
+                sinceSnapshot = 0;
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            channelLock.unlock();
+            manager.addLock.unlock();
+        }
+        Path temporary = directory.resolve(SNAPSHOT + ".tmp");
+        try (FileChannel file = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream stream = Channels.newOutputStream(file);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 256 * 1024));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(first);
+            CRC32C checksum = new CRC32C();
+            for (int id = 1; id <= count; id++) {
+                Task task = manager.getTask(id);
+                String[] values = manager.values(task);
+                byte[] name = bytes(values[0]);
+                byte[] description = bytes(values[1]);
+                int payload = 1 + 4 + 4 + length(name) + 4 + length(description);
+                ByteBuffer record = ByteBuffer.allocate(payload);
+                record.put(ADD).putInt(id);
+                record.putInt(name == null ? -1 : name.length);
+                if (name != null) record.put(name);
+                record.putInt(description == null ? -1 : description.length);
+                if (description != null) record.put(description);
+                checksum.reset();
+                checksum.update(record.array(), 0, payload);
+                out.writeInt(payload);
+                out.writeInt((int) checksum.getValue());
+                out.write(record.array(), 0, payload);
+            }
+            out.flush();
+            file.force(true);
+        }
+        try {
+            Files.move(temporary, directory.resolve(SNAPSHOT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, directory.resolve(SNAPSHOT), StandardCopyOption.REPLACE_EXISTING);
+        }
+        for (long old : generations(directory)) {
+            if (old < first) Files.deleteIfExists(logPath(directory, old));
+        }
+    }
+
+    /**
+     * Writes the pending records, syncs the log and stops the background thread, after the snapshot in progress.
+     * @throws IOException if an error occurs while writing, or if a background snapshot failed
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closing) return;
+            closing = true;
+            pendingChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+            //the writer starts no snapshot once it stopped, the last one must not rotate the log after it is closed
+            Thread snapshot = snapshotter;
+            if (snapshot != null) snapshot.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channelLock.lock();
+        try {
+            if (failure == null) writePending();
+            channel.force(true);
+            channel.close();
+        } finally {
+            channelLock.unlock();
+        }
+        if (failure != null) throw failure;
+        if (snapshotFailure != null) throw snapshotFailure;
+    }
+
+    private FileChannel openLog(long generation) throws IOException {
+        return FileChannel.open(logPath(directory, generation), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void ensure(int bytes) {
+        if (pendingSize + bytes > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingSize + bytes));
+        }
+    }
+
+    private void putInt(int value) {
+        pending[pendingSize++] = (byte) (value >>> 24);
+        pending[pendingSize++] = (byte) (value >>> 16);
+        pending[pendingSize++] = (byte) (value >>> 8);
+        pending[pendingSize++] = (byte) value;
+    }
+
+    private void putString(byte[] value) {
+        if (value == null) {
+            putInt(-1);
+            return;
+        }
+        putInt(value.length);
+        System.arraycopy(value, 0, pending, pendingSize, value.length);
+        pendingSize += value.length;
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] value) {
+        return value == null ? 0 : value.length;
+    }
+
+    private static Path logPath(Path directory, long generation) {
+        return directory.resolve(String.format("%s%012d%s", LOG_PREFIX, generation, LOG_SUFFIX));
+    }
+
+    /**
+     * Lists the generations of the log files of a directory.
+     * @param directory directory of the journal
+     * @return generations in increasing order
+     * @throws IOException if the directory cannot be listed
+     */
+    private static List<Long> generations(Path directory) throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (!name.startsWith(LOG_PREFIX) || !name.endsWith(LOG_SUFFIX)) continue;
+                try {
+                    generations.add(Long.parseLong(name.substring(LOG_PREFIX.length(), name.length() - LOG_SUFFIX.length())));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        generations.sort(null);
+        return generations;
+    }
+
+    /**
+     * Loads a snapshot.
+     * @return generation of the first log file to replay after it
+     */
+    private static long replaySnapshot(Path snapshot, TaskManager manager) throws IOException {
+        try (FileChannel file = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(12);
+            while (header.hasRemaining() && file.read(header) >= 0) ;
+            header.flip();
+            if (header.remaining() < 12 || header.getInt() != SNAPSHOT_MAGIC) throw new IOException("Corrupted task snapshot: " + snapshot);
+            long first = header.getLong();
+            long end = replay(file, 12, manager);
+            if (end != file.size()) throw new IOException("Corrupted task snapshot: " + snapshot);
+            return first;
+        }
+    }
+
+    /**
+     * Replays a log file, a torn record at the end of the last file is the trace of a crash and is cut off.
+     */
+    private static void replayLog(Path log, TaskManager manager, boolean last) throws IOException {
+        try (FileChannel file = FileChannel.open(log, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long end = replay(file, 0, manager);
+            if (end == file.size()) return;
+            if (!last) throw new IOException("Corrupted task journal: " + log);
+            file.truncate(end);
+            file.force(true);
+        }
+    }
+
+    /**
+     * Applies the records of a file, reading it through memory mapped windows.
+     * @param file file of records
+     * @param position position of the first record
+     * @param manager manager that receives the changes
+     * @return position after the last valid record
+     */
+    private static long replay(FileChannel file, long position, TaskManager manager) throws IOException {
+        long size = file.size();
+        CRC32C checksum = new CRC32C();
+        while (position < size) {
+            long windowSize = Math.min(MAP_WINDOW, size - position);
+            MappedByteBuffer window = file.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+            int offset = 0;
+            while (offset + HEADER <= window.limit()) {
+                int payload = window.getInt(offset);
+                if (payload < 5 || payload > Integer.MAX_VALUE - HEADER) return position + offset;
+                if (offset + HEADER + payload > window.limit()) {
+                    //the record does not fit in the window, map again from it or stop if the file ends first
+                    if (position + offset + HEADER + payload > size) return position + offset;
+                    if (offset == 0) window = file.map(FileChannel.MapMode.READ_ONLY, position, HEADER + (long) payload);
+                    else break;
+                }
+                ByteBuffer record = window.slice(offset + HEADER, payload);
+                checksum.reset();
+                checksum.update(record.duplicate());
+                if ((int) checksum.getValue() != window.getInt(offset + 4)) return position + offset;
+                apply(record, manager);
+                offset += HEADER + payload;
+            }
+            if (offset == 0) return position;
+            position += offset;
+        }
+        return position;
+    }
+
+    private static void apply(ByteBuffer record, TaskManager manager) throws IOException {
+        byte type = record.get();
+        int id = record.getInt();
+        switch (type) {
+            case ADD -> manager.restore(id, string(record), string(record));
+            case NAME -> manager.restoreName(id, string(record));
+            case DESCRIPTION -> manager.restoreDescription(id, string(record));
+            default -> throw new IOException("Unknown task journal record " + type);
+        }
+    }
+
+    private static String string(ByteBuffer record) {
+        int length = record.getInt();
+        if (length < 0) return null;
+        byte[] value = new byte[length];
+        record.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
@@ -1,34 +1,360 @@
 package edu.eci.arep.classes;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
 
+/**
+ * Stores the tasks in memory, it is shared by every request.
+ * The tasks are kept in fixed size segments that are only appended to: an add takes a short lock
+ * to assign the next id and fill its slot, then publishes the new size. Readers never lock,
+ * they read the published size and see every task below it, so a read is a consistent snapshot
+ * of the tasks added so far. The id of a task is its position plus one, so finding it by id is direct.
+ * The names are also kept in a trigram index, so a search by name only verifies the tasks
+ * that share every trigram with the query instead of scanning them all.
+ * A manager created with open also logs every change in a {@link TaskJournal}, so its tasks survive restarts.
+ */
 public class TaskManager {
-    List<Task> tasks;
-    int lastId;
-    static TaskManager taskManager;
+    private static final int SEGMENT_BITS = 10;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    private static final int ITERATION_PAGE = 256;
+
+    //held by the journal while it rotates its log, so no add is between its record and its slot
+    final ReentrantLock addLock = new ReentrantLock();
+    private final TrigramIndex index = new TrigramIndex();
+    private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+    //directory of segments, replaced by a bigger copy when it is full
+    private volatile Task[][] segments = new Task[16][];
+    //number of tasks published, every slot below it is filled
+    private volatile int size;
+    //log of the changes, null when the tasks are only kept in memory
+    private volatile TaskJournal journal;
+    static volatile TaskManager taskManager;
     public TaskManager() {
-        this.tasks = new ArrayList<Task>();
-        this.lastId = 0;
     }
     public static TaskManager getTaskManager(){
         if(taskManager == null){
-            taskManager = new TaskManager();
+            synchronized (TaskManager.class){
+                if(taskManager == null) taskManager = new TaskManager();
+            }
         }
         return taskManager;
     }
+    /**
+     * Creates a manager that keeps its tasks in a directory and makes it the shared manager.
+     * The tasks of the directory are recovered first, from its snapshot and its log files.
+     * @param directory directory of the tasks, created if it does not exist
+     * @param sync when the changes are synced to the disk
+     * @param intervalMillis interval between writes of the BATCHED and OS policies
+     * @param snapshotEvery number of changes after which a snapshot is written and the log is truncated
+     * @return the shared manager
+     * @throws IOException if the tasks cannot be recovered
+     * @throws IllegalArgumentException if the interval or the snapshot frequency are not positive
+     */
+    public static TaskManager open(Path directory, TaskJournal.Sync sync, long intervalMillis, long snapshotEvery) throws IOException, IllegalArgumentException {
+        if (intervalMillis <= 0) throw new IllegalArgumentException("Tasks: sync interval must be positive");
+        if (snapshotEvery <= 0) throw new IllegalArgumentException("Tasks: snapshot frequency must be positive");
+        TaskManager manager = new TaskManager();
+        manager.journal = TaskJournal.open(directory, sync, intervalMillis, snapshotEvery, manager);
+        synchronized (TaskManager.class) {
+            taskManager = manager;
+        }
+        return manager;
+    }
+    /**
+     * Writes the changes that are not on the disk yet and stops logging, only for managers created with open.
+     * A closed manager stops being the shared one, and adding tasks to it fails.
+     * @throws IOException if an error occurs while writing
+     */
+    public void close() throws IOException {
+        synchronized (TaskManager.class) {
+            if (taskManager == this) taskManager = null;
+        }
+        if (journal != null) journal.close();
+    }
+    /**
+     * Writes a snapshot of the tasks now and truncates the log, only for managers created with open.
+     * @throws IOException if an error occurs while writing the snapshot
+     */
+    public void snapshot() throws IOException {
+        if (journal != null) journal.writeSnapshot();
+    }
+    /**
+     * Adds a task with the next id.
+     * When the manager is persistent the task is logged first, and with the ALWAYS policy
+     * the call returns once it is on the disk.
+     * @param name name of the task
+     * @param description description of the task
+     * @return the new task
+     */
     public Task addTask(String name, String description) {
-        lastId++;
-        Task task = new Task(name, description, lastId);
-        this.tasks.add(task);
+        Task task;
+        long sequence = 0;
+        addLock.lock();
+        try {
+            task = new Task(name, description, size + 1);
+            //logged before it is published, so no later change of the task can be logged before it
+            if (journal != null) sequence = journal.append(TaskJournal.ADD, task.id, name, description);
+            insert(task);
+        } finally {
+            addLock.unlock();
+        }
+        //the sync is awaited outside the lock so concurrent adds share it
+        if (journal != null) journal.await(sequence);
         return task;
-
     }
+    /**
+     * Publishes a task in the next slot and indexes its name, the caller holds addLock.
+     * @param task task whose id is the next one
+     */
+    private void insert(Task task) {
+        int index = size;
+        task.owner = this;
+        task.foldedName = fold(task.name);
+        int segment = index >>> SEGMENT_BITS;
+        Task[][] directory = segments;
+        if (segment == directory.length) {
+            Task[][] bigger = new Task[directory.length * 2][];
+            System.arraycopy(directory, 0, bigger, 0, directory.length);
+            directory = bigger;
+        }
+        if (directory[segment] == null) directory[segment] = new Task[SEGMENT_SIZE];
+        directory[segment][index & SEGMENT_MASK] = task;
+        //the directory is published before the size, a reader that sees the size sees the slot
+        segments = directory;
+        size = index + 1;
+        indexLock.writeLock().lock();
+        try {
+            this.index.add(task.id, task.foldedName);
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+    /**
+     * Changes the name of a task of this manager, moving it in the index.
+     * @param task task to rename
+     * @param name new name of the task
+     */
+    void rename(Task task, String name) {
+        long sequence = 0;
+        indexLock.writeLock().lock();
+        try {
+            index.remove(task.id, task.foldedName);
+            task.name = name;
+            task.foldedName = fold(name);
+            index.add(task.id, task.foldedName);
+            if (journal != null) sequence = journal.append(TaskJournal.NAME, task.id, name, null);
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+        if (journal != null) journal.await(sequence);
+    }
+    /**
+     * Changes the description of a task of this manager.
+     * @param task task to change
+     * @param description new description of the task
+     */
+    void describe(Task task, String description) {
+        long sequence = 0;
+        indexLock.writeLock().lock();
+        try {
+            task.description = description;
+            if (journal != null) sequence = journal.append(TaskJournal.DESCRIPTION, task.id, null, description);
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+        if (journal != null) journal.await(sequence);
+    }
+    /**
+     * Copies the name and the description of a task, consistent with the changes logged so far.
+     * @param task task of this manager
+     * @return name and description
+     */
+    String[] values(Task task) {
+        indexLock.readLock().lock();
+        try {
+            return new String[]{task.name, task.description};
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+    /**
+     * Applies a logged task while recovering: a new id is added, a known id gets the logged values.
+     * @throws IOException if the id skips the next one, so a part of the log is missing
+     */
+    void restore(int id, String name, String description) throws IOException {
+        Task task = getTask(id);
+        if (task != null) {
+            restoreName(id, name);
+            task.description = description;
+            return;
+        }
+        if (id != size + 1) throw new IOException("Task journal is missing the tasks before " + id);
+        insert(new Task(name, description, id));
+    }
+    /**
+     * Applies a logged name change while recovering.
+     * @throws IOException if the task does not exist
+     */
+    void restoreName(int id, String name) throws IOException {
+        Task task = getTask(id);
+        if (task == null) throw new IOException("Task journal renames the unknown task " + id);
+        index.remove(id, task.foldedName);
+        task.name = name;
+        task.foldedName = fold(name);
+        index.add(id, task.foldedName);
+    }
+    /**
+     * Applies a logged description change while recovering.
+     * @throws IOException if the task does not exist
+     */
+    void restoreDescription(int id, String description) throws IOException {
+        Task task = getTask(id);
+        if (task == null) throw new IOException("Task journal describes the unknown task " + id);
+        task.description = description;
+    }
+    /**
+     * Returns a copy of the stored tasks, so it can be iterated while other requests add tasks.
+     * @return list of tasks
+     */
     public List<Task> getTasks() {
+        int count = size;
+        Task[][] directory = segments;
+        List<Task> tasks = new ArrayList<>(count);
+        for (int start = 0; start < count; start += SEGMENT_SIZE) {
+            Task[] segment = directory[start >>> SEGMENT_BITS];
+            int length = Math.min(SEGMENT_SIZE, count - start);
+            for (int i = 0; i < length; i++) tasks.add(segment[i]);
+        }
         return tasks;
     }
+    /**
+     * Finds a task by its id, the ids are assigned in order so the id is the position of the task.
+     * @param id id of the task
+     * @return the task, null if there is no task with that id
+     */
+    public Task getTask(int id) {
+        if (id <= 0 || id > size) return null;
+        int index = id - 1;
+        return segments[index >>> SEGMENT_BITS][index & SEGMENT_MASK];
+    }
+    /**
+     * Gets the number of tasks stored.
+     * @return number of tasks
+     */
+    public int size() {
+        return size;
+    }
+    /**
+     * Finds the tasks whose name contains a text, ignoring case.
+     * Texts of three or more characters are looked up in the trigram index,
+     * shorter ones are compared against the folded names of every task.
+     * @param name text to look for
+     * @return tasks that match, in the order they were added
+     */
     public List<Task> getTasksByName(String name) {
-        return this.tasks.stream().filter(x -> x.getName().toLowerCase().contains(name.toLowerCase())).collect(Collectors.toList());
+        List<Task> tasks = new ArrayList<>();
+        scan(fold(name), 0, task -> tasks.add(task));
+        return tasks;
+    }
+    /**
+     * Gets a page of the tasks. The cursor is an id, so the pages stay stable while tasks are added.
+     * @param cursor id of the last task of the previous page, 0 for the first page
+     * @param limit maximum number of tasks of the page
+     * @return page of tasks with the cursor of the next one
+     * @throws IllegalArgumentException if the limit is not positive or the cursor is negative
+     */
+    public TaskPage getTasks(int cursor, int limit) throws IllegalArgumentException {
+        return getTasksByName(null, cursor, limit);
+    }
+    /**
+     * Gets a page of the tasks whose name contains a text, ignoring case.
+     * @param name text to look for, null for every task
+     * @param cursor id of the last task of the previous page, 0 for the first page
+     * @param limit maximum number of tasks of the page
+     * @return page of tasks with the cursor of the next one
+     * @throws IllegalArgumentException if the limit is not positive or the cursor is negative
+     */
+    public TaskPage getTasksByName(String name, int cursor, int limit) throws IllegalArgumentException {
+        if (limit <= 0) throw new IllegalArgumentException("Tasks: limit must be positive");
+        if (cursor < 0) throw new IllegalArgumentException("Tasks: cursor cannot be negative");
+        List<Task> tasks = new ArrayList<>(Math.min(limit, 1024) + 1);
+        //one more task than the limit tells if there is a next page
+        scan(name == null ? null : fold(name), cursor, task -> tasks.add(task) && tasks.size() <= limit);
+        if (tasks.size() <= limit) return new TaskPage(tasks, null);
+        tasks.remove(limit);
+        return new TaskPage(tasks, tasks.get(limit - 1).getId());
+    }
+    /**
+     * Iterates the tasks whose name contains a text one page at a time,
+     * so only a page is held in memory while they are written.
+     * @param name text to look for, null for every task
+     * @param cursor id of the last task already seen, 0 to start from the first one
+     * @return tasks that match, tasks added during the iteration are included
+     * @throws IllegalArgumentException if the cursor is negative
+     */
+    public Iterable<Task> iterateTasks(String name, int cursor) throws IllegalArgumentException {
+        //checked now, the pages are only read once the tasks are being written
+        if (cursor < 0) throw new IllegalArgumentException("Tasks: cursor cannot be negative");
+        return () -> new Iterator<>() {
+            private Iterator<Task> page = Collections.emptyIterator();
+            private Integer next = cursor;
+
+            @Override
+            public boolean hasNext() {
+                while (!page.hasNext() && next != null) {
+                    TaskPage current = getTasksByName(name, next, ITERATION_PAGE);
+                    page = current.tasks().iterator();
+                    next = current.nextCursor();
+                }
+                return page.hasNext();
+            }
+
+            @Override
+            public Task next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return page.next();
+            }
+        };
+    }
+    /**
+     * Visits the tasks after an id whose folded name contains a filter, in order of id.
+     * @param filter case folded text, null for every task
+     * @param afterId only tasks with a greater id are visited
+     * @param visitor receives each task, returns false to stop
+     */
+    private void scan(String filter, int afterId, Predicate<Task> visitor) {
+        if (filter == null || filter.length() < 3) {
+            //a full scan reads the published segments without the lock, so a long one does not hold back the adds
+            int count = size;
+            Task[][] directory = segments;
+            for (int i = afterId; i < count; i++) {
+                Task task = directory[i >>> SEGMENT_BITS][i & SEGMENT_MASK];
+                if ((filter == null || task.foldedName.contains(filter)) && !visitor.test(task)) return;
+            }
+            return;
+        }
+        indexLock.readLock().lock();
+        try {
+            index.forEachCandidate(filter, afterId, id -> {
+                Task task = getTask(id);
+                return task == null || !task.foldedName.contains(filter) || visitor.test(task);
+            });
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    private static String fold(String name) {
+        return name == null ? "" : name.toLowerCase(Locale.ROOT);
     }
 }
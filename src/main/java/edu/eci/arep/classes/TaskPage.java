@@ -0,0 +1,11 @@
+package edu.eci.arep.classes;
+
+import java.util.List;
+
+/**
+ * A page of tasks.
+ * @param tasks tasks of the page, in the order they were added
+ * @param nextCursor cursor of the next page (the id of the last task of this page), null if this is the last page
+ */
+public record TaskPage(List<Task> tasks, Integer nextCursor) {
+}
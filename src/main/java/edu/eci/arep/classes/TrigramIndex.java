@@ -0,0 +1,118 @@
+package edu.eci.arep.classes;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * Index of the trigrams (sequences of three characters) of the case folded task names.
+ * Each trigram has the ids of the tasks whose name contains it, in increasing order.
+ * A name contains a query only if it contains every trigram of the query, so intersecting
+ * their lists gives a small set of candidates that are then verified. It is not thread safe,
+ * TaskManager guards it with a read-write lock.
+ */
+class TrigramIndex {
+    /**
+     * Ids of the tasks that have a trigram, sorted.
+     */
+    private static final class Postings {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            //ids are assigned in order, so they are almost always appended
+            if (size == 0 || ids[size - 1] < id) {
+                if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+                ids[size++] = id;
+                return;
+            }
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            if (position >= 0) return;
+            position = -position - 1;
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = id;
+            size++;
+        }
+
+        void remove(int id) {
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            if (position < 0) return;
+            System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+            size--;
+        }
+    }
+
+    private final Map<Long, Postings> postings = new HashMap<>();
+
+    /**
+     * Adds the trigrams of a name.
+     * @param id id of the task
+     * @param folded case folded name of the task
+     */
+    void add(int id, String folded) {
+        for (int i = 0; i + 3 <= folded.length(); i++) {
+            postings.computeIfAbsent(trigram(folded, i), t -> new Postings()).add(id);
+        }
+    }
+
+    /**
+     * Removes the trigrams of a name.
+     * @param id id of the task
+     * @param folded case folded name the task had when it was added
+     */
+    void remove(int id, String folded) {
+        for (int i = 0; i + 3 <= folded.length(); i++) {
+            long trigram = trigram(folded, i);
+            Postings list = postings.get(trigram);
+            if (list == null) continue;
+            list.remove(id);
+            if (list.size == 0) postings.remove(trigram);
+        }
+    }
+
+    /**
+     * Visits the tasks whose name may contain a query, in increasing order of id; they still have to be verified.
+     * The shortest list of the query trigrams drives the walk, each of its ids is looked up in the other
+     * lists by binary search from the last position found, so nothing is copied and the walk can stop early.
+     * @param folded case folded query, at least three characters long
+     * @param afterId only ids greater than this one are visited
+     * @param visitor receives each candidate id, returns false to stop
+     */
+    void forEachCandidate(String folded, int afterId, IntPredicate visitor) {
+        int count = folded.length() - 2;
+        Postings[] lists = new Postings[count];
+        for (int i = 0; i < count; i++) {
+            lists[i] = postings.get(trigram(folded, i));
+            if (lists[i] == null) return;
+        }
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+        int[] positions = new int[count];
+        Postings shortest = lists[0];
+        int start = Arrays.binarySearch(shortest.ids, 0, shortest.size, afterId);
+        start = start >= 0 ? start + 1 : -start - 1;
+        for (int i = start; i < shortest.size; i++) {
+            int id = shortest.ids[i];
+            boolean inAll = true;
+            for (int l = 1; l < count && inAll; l++) {
+                Postings list = lists[l];
+                if (list == shortest) continue;
+                int position = Arrays.binarySearch(list.ids, positions[l], list.size, id);
+                if (position >= 0) {
+                    positions[l] = position + 1;
+                } else {
+                    positions[l] = -position - 1;
+                    inAll = false;
+                    //no id of this list is left, no later candidate can match
+                    if (positions[l] == list.size) return;
+                }
+            }
+            if (inAll && !visitor.test(id)) return;
+        }
+    }
+
+    private static long trigram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+}
@@ -0,0 +1,134 @@
+package edu.eci.arep.helpers;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How to build the objects of a class from JSON, computed once per class and cached in a {@link ClassValue}.
+ * Records are built with their canonical constructor, other classes with their no-argument
+ * constructor and a setter for each non-static, non-final, non-transient field. Unknown members are skipped.
+ */
+final class BindingPlan {
+    private static final ClassValue<BindingPlan> PLANS = new ClassValue<>() {
+        @Override
+        protected BindingPlan computeValue(Class<?> type) {
+            return new BindingPlan(type);
+        }
+    };
+
+    private final Class<?> type;
+    private final byte[][] names;
+    private final Class<?>[] types;
+    //canonical constructor of a record taking an Object[], or the no-argument constructor of a class
+    private final MethodHandle constructor;
+    //setters taking (Object target, Object value), null for records
+    private final MethodHandle[] setters;
+    private final String error;
+
+    /**
+     * Gets the plan of a class, computing it the first time.
+     * @param type class of the objects to build
+     * @return plan of the class
+     */
+    static BindingPlan of(Class<?> type) {
+        return PLANS.get(type);
+    }
+
+    private BindingPlan(Class<?> type) {
+        this.type = type;
+        List<String> names = new ArrayList<>();
+        List<Class<?>> types = new ArrayList<>();
+        List<MethodHandle> setters = new ArrayList<>();
+        MethodHandle constructor = null;
+        String error = null;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+            if (type.isRecord()) {
+                RecordComponent[] components = type.getRecordComponents();
+                Class<?>[] parameters = new Class<?>[components.length];
+                for (int i = 0; i < components.length; i++) {
+                    names.add(components[i].getName());
+                    types.add(components[i].getType());
+                    parameters[i] = components[i].getType();
+                }
+                constructor = lookup.findConstructor(type, MethodType.methodType(void.class, parameters))
+                        .asSpreader(Object[].class, components.length)
+                        .asType(MethodType.methodType(Object.class, Object[].class));
+            } else {
+                constructor = lookup.findConstructor(type, MethodType.methodType(void.class))
+                        .asType(MethodType.methodType(Object.class));
+                for (Field field : type.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers) || Modifier.isTransient(modifiers)) continue;
+                    names.add(field.getName());
+                    types.add(field.getType());
+                    setters.add(lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, Object.class)));
+                }
+            }
+        } catch (NoSuchMethodException e) {
+            error = "Cannot bind JSON to " + type.getName() + ": it has no suitable constructor";
+        } catch (IllegalAccessException e) {
+            error = "Cannot bind JSON to " + type.getName() + ": it is not accessible";
+        }
+        this.names = names.stream().map(n -> n.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new);
+        this.types = types.toArray(new Class<?>[0]);
+        this.constructor = constructor;
+        this.setters = type.isRecord() ? null : setters.toArray(new MethodHandle[0]);
+        this.error = error;
+    }
+
+    /**
+     * Reads a JSON object and builds an object of the class with it.
+     * Members that are missing keep their default value.
+     * @param reader reader positioned at the object
+     * @return the new object
+     * @throws JsonException if the JSON is malformed or the object cannot be built
+     */
+    Object read(JsonReader reader) {
+        if (error != null) throw new JsonException(error);
+        Object[] values = new Object[names.length];
+        reader.beginObject();
+        boolean first = true;
+        while (reader.hasNext('}', first)) {
+            first = false;
+            int index = reader.readName(names);
+            if (index < 0) reader.skipValue();
+            else values[index] = reader.readValue(types[index]);
+        }
+        try {
+            if (setters == null) {
+                for (int i = 0; i < values.length; i++) {
+                    if (values[i] == null && types[i].isPrimitive()) values[i] = defaultValue(types[i]);
+                }
+                return constructor.invokeExact(values);
+            }
+            Object target = constructor.invokeExact();
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) setters[i].invokeExact(target, values[i]);
+            }
+            return target;
+        } catch (JsonException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new JsonException("Cannot bind JSON to " + type.getName() + ": " + e.getMessage());
+        }
+    }
+
+    private static Object defaultValue(Class<?> primitive) {
+        if (primitive == boolean.class) return false;
+        if (primitive == char.class) return '\0';
+        if (primitive == long.class) return 0L;
+        if (primitive == double.class) return 0.0;
+        if (primitive == float.class) return 0.0f;
+        if (primitive == short.class) return (short) 0;
+        if (primitive == byte.class) return (byte) 0;
+        return 0;
+    }
+}
@@ -0,0 +1,31 @@
+package edu.eci.arep.helpers;
+
+/**
+ * Thrown when a JSON text is malformed or cannot be bound to the requested class.
+ */
+public class JsonException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+
+    private final boolean limitExceeded;
+
+    public JsonException(String message) {
+        this(message, false);
+    }
+
+    /**
+     * @param message description of the problem
+     * @param limitExceeded true if the text was rejected for its size or nesting, not for its syntax
+     */
+    public JsonException(String message, boolean limitExceeded) {
+        super(message);
+        this.limitExceeded = limitExceeded;
+    }
+
+    /**
+     * Checks if the text was rejected because it exceeded the size or nesting limits.
+     * @return true if a limit was exceeded
+     */
+    public boolean isLimitExceeded() {
+        return limitExceeded;
+    }
+}
@@ -0,0 +1,399 @@
+package edu.eci.arep.helpers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single pass JSON parser that works directly on UTF-8 bytes.
+ * It can produce generic values (maps, lists, strings, numbers, booleans) or bind an object
+ * straight into a class, following the plan cached for that class.
+ * Texts bigger than the size limit are rejected before parsing, and so are texts nested too deeply.
+ */
+public class JsonReader {
+    public static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+    public static final int DEFAULT_MAX_DEPTH = 32;
+
+    private final byte[] data;
+    private final int end;
+    private final int maxDepth;
+    private int pos;
+    private int depth;
+
+    /**
+     * Creates a reader over a range of bytes.
+     * @param data bytes of the JSON text
+     * @param offset position of the first byte of the text
+     * @param length number of bytes of the text
+     * @param maxBytes maximum number of bytes accepted
+     * @param maxDepth maximum number of nested objects and arrays accepted
+     * @throws JsonException if the text is bigger than the maximum size
+     */
+    public JsonReader(byte[] data, int offset, int length, int maxBytes, int maxDepth) {
+        if (length > maxBytes) {
+            throw new JsonException("JSON text of " + length + " bytes exceeds the limit of " + maxBytes, true);
+        }
+        this.data = data;
+        this.pos = offset;
+        this.end = offset + length;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Binds a JSON text to a class with the default limits.
+     * @param data bytes of the JSON text
+     * @param type class of the result
+     * @return the bound object
+     * @throws JsonException if the text is malformed, exceeds the limits or does not match the class
+     */
+    public static <T> T read(byte[] data, Class<T> type) {
+        JsonReader reader = new JsonReader(data, 0, data.length, DEFAULT_MAX_BYTES, DEFAULT_MAX_DEPTH);
+        T value = reader.readValue(type);
+        reader.expectEnd();
+        return value;
+    }
+
+    /**
+     * Parses a JSON text into generic values with the default limits.
+     * @param data bytes of the JSON text
+     * @return maps for objects, lists for arrays, strings, longs, doubles, booleans or null
+     * @throws JsonException if the text is malformed or exceeds the limits
+     */
+    public static Object read(byte[] data) {
+        return read(data, Object.class);
+    }
+
+    /**
+     * Reads the next value converting it to a class.
+     * @param type class of the result, Object.class for generic values
+     * @return the value, null if the JSON value is null
+     * @throws JsonException if the value is malformed or does not match the class
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T readValue(Class<T> type) {
+        skipWhitespace();
+        if (peek() == 'n') {
+            expectLiteral("null");
+            if (type.isPrimitive()) throw error("null is not a valid " + type.getName());
+            return null;
+        }
+        if (type == Object.class) return (T) readAny();
+        if (type == String.class) return (T) readString();
+        if (type == int.class || type == Integer.class) return (T) Integer.valueOf((int) readLong(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        if (type == long.class || type == Long.class) return (T) Long.valueOf(readLong());
+        if (type == double.class || type == Double.class) return (T) Double.valueOf(readNumber().doubleValue());
+        if (type == float.class || type == Float.class) return (T) Float.valueOf(readFloat());
+        if (type == short.class || type == Short.class) return (T) Short.valueOf((short) readLong(Short.MIN_VALUE, Short.MAX_VALUE));
+        if (type == byte.class || type == Byte.class) return (T) Byte.valueOf((byte) readLong(Byte.MIN_VALUE, Byte.MAX_VALUE));
+        if (type == char.class || type == Character.class) return (T) Character.valueOf(readChar());
+        if (type == boolean.class || type == Boolean.class) return (T) Boolean.valueOf(readBoolean());
+        if (Collection.class.isAssignableFrom(type)) return (T) readArray();
+        if (Map.class.isAssignableFrom(type)) return (T) readObject();
+        return (T) BindingPlan.of(type).read(this);
+    }
+
+    private Object readAny() {
+        switch (peek()) {
+            case '{': return readObject();
+            case '[': return readArray();
+            case '"': return readString();
+            case 't': case 'f': return readBoolean();
+            default: return readNumber();
+        }
+    }
+
+    private Map<String, Object> readObject() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        beginObject();
+        boolean first = true;
+        while (hasNext('}', first)) {
+            first = false;
+            String name = readString();
+            expectColon();
+            map.put(name, readValue(Object.class));
+        }
+        return map;
+    }
+
+    private List<Object> readArray() {
+        List<Object> list = new ArrayList<>();
+        begin('[');
+        boolean first = true;
+        while (hasNext(']', first)) {
+            first = false;
+            list.add(readValue(Object.class));
+        }
+        return list;
+    }
+
+    /**
+     * Consumes the opening brace of an object.
+     * @throws JsonException if the next value is not an object or it is nested too deeply
+     */
+    void beginObject() {
+        begin('{');
+    }
+
+    private void begin(char open) {
+        skipWhitespace();
+        expect(open);
+        if (++depth > maxDepth) throw new JsonException("JSON nested deeper than " + maxDepth + " levels", true);
+    }
+
+    /**
+     * Moves to the next member of the current object or array.
+     * @param close closing character of the current object or array
+     * @param first true if no member was read yet
+     * @return false when the closing character was consumed
+     */
+    boolean hasNext(char close, boolean first) {
+        skipWhitespace();
+        if (peek() == close) {
+            pos++;
+            depth--;
+            return false;
+        }
+        if (!first) {
+            expect(',');
+            skipWhitespace();
+        }
+        return true;
+    }
+
+    /**
+     * Reads the name of a member and its colon, matching it against known names without decoding it.
+     * @param names encoded names to look for
+     * @return index of the matching name, -1 if it is none of them
+     */
+    int readName(byte[][] names) {
+        skipWhitespace();
+        expect('"');
+        int start = pos;
+        while (pos < end && data[pos] != '"' && data[pos] != '\\') pos++;
+        int index = -1;
+        if (pos < end && data[pos] == '"') {
+            int length = pos - start;
+            for (int i = 0; i < names.length && index < 0; i++) {
+                if (names[i].length == length && Arrays.equals(names[i], 0, length, data, start, pos)) index = i;
+            }
+            pos++;
+        } else {
+            //escaped name, decode it before comparing
+            pos = start - 1;
+            byte[] decoded = readString().getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < names.length && index < 0; i++) {
+                if (Arrays.equals(names[i], decoded)) index = i;
+            }
+        }
+        expectColon();
+        return index;
+    }
+
+    /**
+     * Skips the next value, whatever its type.
+     */
+    void skipValue() {
+        readValue(Object.class);
+    }
+
+    /**
+     * Reads a string, escapes are decoded. Strings without escapes are decoded in one step.
+     * @return the string
+     */
+    String readString() {
+        skipWhitespace();
+        expect('"');
+        int start = pos;
+        while (pos < end) {
+            byte b = data[pos];
+            if (b == '"') {
+                pos++;
+                return new String(data, start, pos - 1 - start, StandardCharsets.UTF_8);
+            }
+            if (b == '\\') break;
+            if (b >= 0 && b < 0x20) throw error("control character in string");
+            pos++;
+        }
+        StringBuilder sb = new StringBuilder(pos - start + 16);
+        sb.append(new String(data, start, pos - start, StandardCharsets.UTF_8));
+        while (pos < end) {
+            byte b = data[pos];
+            if (b == '"') {
+                pos++;
+                return sb.toString();
+            }
+            if (b == '\\') {
+                pos++;
+                sb.append(readEscape());
+            } else {
+                int run = pos;
+                while (pos < end && data[pos] != '"' && data[pos] != '\\') {
+                    if (data[pos] >= 0 && data[pos] < 0x20) throw error("control character in string");
+                    pos++;
+                }
+                sb.append(new String(data, run, pos - run, StandardCharsets.UTF_8));
+            }
+        }
+        throw error("unterminated string");
+    }
+
+    private char readEscape() {
+        if (pos >= end) throw error("unterminated escape");
+        byte b = data[pos++];
+        switch (b) {
+            case '"': return '"';
+            case '\\': return '\\';
+            case '/': return '/';
+            case 'b': return '\b';
+            case 'f': return '\f';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            case 'u':
+                if (pos + 4 > end) throw error("unterminated escape");
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(data[pos++], 16);
+                    if (digit < 0) throw error("invalid unicode escape");
+                    value = value * 16 + digit;
+                }
+                return (char) value;
+            default:
+                throw error("invalid escape");
+        }
+    }
+
+    /**
+     * Reads a number, integers that fit in a long are returned as Long and any other as Double.
+     * @return the number
+     */
+    Number readNumber() {
+        skipWhitespace();
+        int start = pos;
+        boolean negative = false;
+        if (pos < end && data[pos] == '-') {
+            negative = true;
+            pos++;
+        }
+        //accumulated as a negative number, which also holds Long.MIN_VALUE
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long value = 0;
+        int digits = 0;
+        boolean overflow = false;
+        while (pos < end && data[pos] >= '0' && data[pos] <= '9') {
+            int digit = data[pos++] - '0';
+            if (value < limit / 10 || value * 10 < limit + digit) overflow = true;
+            else value = value * 10 - digit;
+            digits++;
+        }
+        if (digits == 0) throw error("invalid value");
+        boolean decimal = false;
+        if (pos < end && data[pos] == '.') {
+            decimal = true;
+            pos++;
+            while (pos < end && data[pos] >= '0' && data[pos] <= '9') pos++;
+        }
+        if (pos < end && (data[pos] == 'e' || data[pos] == 'E')) {
+            decimal = true;
+            pos++;
+            if (pos < end && (data[pos] == '+' || data[pos] == '-')) pos++;
+            while (pos < end && data[pos] >= '0' && data[pos] <= '9') pos++;
+        }
+        if (!decimal && !overflow) return negative ? value : -value;
+        try {
+            return Double.parseDouble(new String(data, start, pos - start, StandardCharsets.US_ASCII));
+        } catch (NumberFormatException e) {
+            throw error("invalid number");
+        }
+    }
+
+    private long readLong() {
+        Number number = readNumber();
+        if (!(number instanceof Long)) throw error("expected an integer");
+        return number.longValue();
+    }
+
+    private long readLong(long min, long max) {
+        int start = pos;
+        long value = readLong();
+        if (value < min || value > max) {
+            pos = start;
+            throw error("integer out of range [" + min + ", " + max + "]");
+        }
+        return value;
+    }
+
+    //a double beyond the range of float would become infinity, which JSON cannot hold
+    private float readFloat() {
+        int start = pos;
+        double value = readNumber().doubleValue();
+        if (Math.abs(value) > Float.MAX_VALUE) {
+            pos = start;
+            throw error("number out of the range of float");
+        }
+        return (float) value;
+    }
+
+    private char readChar() {
+        int start = pos;
+        String value = readString();
+        if (value.length() != 1) {
+            pos = start;
+            throw error("expected a string of one character");
+        }
+        return value.charAt(0);
+    }
+
+    private boolean readBoolean() {
+        skipWhitespace();
+        if (peek() == 't') {
+            expectLiteral("true");
+            return true;
+        }
+        expectLiteral("false");
+        return false;
+    }
+
+    /**
+     * Checks that nothing but whitespace follows the value.
+     */
+    void expectEnd() {
+        skipWhitespace();
+        if (pos != end) throw error("unexpected content after the value");
+    }
+
+    private void expectColon() {
+        skipWhitespace();
+        expect(':');
+    }
+
+    private void expectLiteral(String literal) {
+        for (int i = 0; i < literal.length(); i++) expect(literal.charAt(i));
+    }
+
+    private void expect(char c) {
+        if (pos >= end || data[pos] != c) throw error("expected '" + c + "'");
+        pos++;
+    }
+
+    private int peek() {
+        if (pos >= end) throw error("unexpected end of text");
+        return data[pos];
+    }
+
+    private void skipWhitespace() {
+        while (pos < end) {
+            byte b = data[pos];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') return;
+            pos++;
+        }
+    }
+
+    private JsonException error(String message) {
+        return new JsonException("Invalid JSON at position " + pos + ": " + message);
+    }
+}
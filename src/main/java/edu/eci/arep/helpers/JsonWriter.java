@@ -0,0 +1,460 @@
+package edu.eci.arep.helpers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * Serializes objects as UTF-8 JSON straight into a byte buffer. When the buffer is full it is
+ * written to the sink, so a big value is sent while it is being serialized instead of being
+ * built as a String first. The buffers are taken from a small pool and returned on close.
+ */
+public class JsonWriter implements Closeable {
+    public static final int BUFFER_SIZE = 16 * 1024;
+    private static final ArrayBlockingQueue<byte[]> POOL = new ArrayBlockingQueue<>(64);
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    //the two digits of each number from 00 to 99, so a number is written two digits at a time
+    private static final byte[] PAIRS = new byte[200];
+    static {
+        for (int i = 0; i < 100; i++) {
+            PAIRS[2 * i] = (byte) ('0' + i / 10);
+            PAIRS[2 * i + 1] = (byte) ('0' + i % 10);
+        }
+    }
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+
+    private final OutputStream sink;
+    private byte[] buffer;
+    private int count;
+    private boolean flushed;
+
+    /**
+     * Creates a writer that sends its bytes to a stream each time its buffer is full.
+     * @param sink stream that receives the JSON bytes
+     */
+    public JsonWriter(OutputStream sink) {
+        this.sink = sink;
+        byte[] pooled = POOL.poll();
+        this.buffer = pooled != null ? pooled : new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Serializes a value: strings, numbers, booleans, lists, maps, primitive arrays and streams, and objects.
+     * Objects are written by their non-static, non-transient fields (or their components for records)
+     * following the plan cached for their class.
+     * @param obj value to write, may be null
+     * @return this writer
+     * @throws IOException if an error occurs while writing to the sink
+     */
+    public JsonWriter writeValue(Object obj) throws IOException {
+        if (obj == null) {
+            writeRaw(NULL);
+        } else if (obj instanceof String) {
+            writeString((String) obj);
+        } else if (obj instanceof Integer || obj instanceof Short || obj instanceof Byte) {
+            writeInt(((Number) obj).intValue());
+        } else if (obj instanceof Long) {
+            writeLong((Long) obj);
+        } else if (obj instanceof Double) {
+            writeDouble((Double) obj);
+        } else if (obj instanceof Float) {
+            writeFloat((Float) obj);
+        } else if (obj instanceof Number) {
+            writeAscii(obj.toString());
+        } else if (obj instanceof Boolean) {
+            writeBoolean((Boolean) obj);
+        } else if (obj instanceof Iterable<?>) {
+            writeArray((Iterable<?>) obj);
+        } else if (obj instanceof int[] values) {
+            writeArray(values);
+        } else if (obj instanceof long[] values) {
+            writeArray(values);
+        } else if (obj instanceof double[] values) {
+            writeArray(values);
+        } else if (obj instanceof IntStream values) {
+            writeArray(values.iterator());
+        } else if (obj instanceof LongStream values) {
+            writeArray(values.iterator());
+        } else if (obj instanceof DoubleStream values) {
+            writeArray(values.iterator());
+        } else if (obj instanceof Map<?, ?>) {
+            writeMap((Map<?, ?>) obj);
+        } else {
+            SerializationPlan.of(obj.getClass()).write(obj, this);
+        }
+        return this;
+    }
+
+    /**
+     * Writes each value followed by a new line (JSON Lines / NDJSON), the values are serialized
+     * as they are iterated so a lazy iterable is never held in memory as a whole.
+     * @param values the values to write
+     * @throws IOException if an error occurs while writing to the sink
+     */
+    public void writeLines(Iterable<?> values) throws IOException {
+        for (Object value : values) {
+            writeValue(value);
+            writeByte('\n');
+        }
+    }
+
+    /**
+     * Writes a collection or any other iterable as a JSON array.
+     * @param values the values to convert
+     * @throws IOException if an error occurs while writing to the sink
+     */
+    private void writeArray(Iterable<?> values) throws IOException {
+        writeByte('[');
+        boolean first = true;
+        for (Object item : values) {
+            if (!first) writeByte(',');
+            writeValue(item);
+            first = false;
+        }
+        writeByte(']');
+    }
+
+    /**
+     * Writes an int array as a JSON array, the numbers are never boxed.
+     * @param values the numbers to write
+     * @throws IOException if an error occurs while writing to the sink
+     */
+    public void writeArray(int[] values) throws IOException {
+        writeByte('[');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) writeByte(',');
+            writeInt(values[i]);
+        }
+        writeByte(']');
+    }
+
+    /**
+     * Writes a long array as a JSON array, the numbers are never boxed.
+     * @param values the numbers to write
+     * @throws IOException if an error occurs while writing to the sink
+     */
+    public void writeArray(long[] values) throws IOException {
+        writeByte('[');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) writeByte(',');
+            writeLong(values[i]);
+        }
+        writeByte(']');
+    }
+
+    /**
+     * Writes a double array as a JSON array, the numbers are never boxed.
+     * @param values the numbers to write
+     * @throws IOException if an error occurs while writing to the sink
+     */
+    public void writeArray(double[] values) throws IOException {
+        writeByte('[');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) writeByte(',');
+            writeDouble(values[i]);
+        }
+        writeByte(']');
+    }
+
+    /**
+     * Writes the numbers of an IntStream, such as IntStream.range, as a JSON array. They are taken
+     * one at a time with nextInt, so only the iterator is allocated whatever the length of the stream.
+     * @param values iterator of the stream
+     * @throws IOException if an error occurs while writing to the sink
+     */
+    private void writeArray(PrimitiveIterator.OfInt values) throws IOException {
+        writeByte('[');
+        boolean first = true;
+        while (values.hasNext()) {
+            if (!first) writeByte(',');
+            writeInt(values.nextInt());
+            first = false;
+        }
+        writeByte(']');
+    }
+
+    /**
+     * Writes the numbers of a LongStream as a JSON array, without boxing them.
+     * @param values iterator of the stream
+     * @throws IOException if an error occurs while writing to the sink
+     */
+    private void writeArray(PrimitiveIterator.OfLong values) throws IOException {
+        writeByte('[');
+        boolean first = true;
+        while (values.hasNext()) {
+            if (!first) writeByte(',');
+            writeLong(values.nextLong());
+            first = false;
+        }
+        writeByte(']');
+    }
+
+    /**
+     * Writes the numbers of a DoubleStream as a JSON array, without boxing them.
+     * @param values iterator of the stream
+     * @throws IOException if an error occurs while writing to the sink
+     */
+    private void writeArray(PrimitiveIterator.OfDouble values) throws IOException {
+        writeByte('[');
+        boolean first = true;
+        while (values.hasNext()) {
+            if (!first) writeByte(',');
+            writeDouble(values.nextDouble());
+            first = false;
+        }
+        writeByte(']');
+    }
+
+    /**
+     * Writes a map as a JSON object, the keys are converted to strings.
+     * @param map the map to convert
+     * @throws IOException if an error occurs while writing to the sink
+     */
+    private void writeMap(Map<?, ?> map) throws IOException {
+        writeByte('{');
+        boolean first = true;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (!first) writeByte(',');
+            writeString(String.valueOf(entry.getKey()));
+            writeByte(':');
+            writeValue(entry.getValue());
+            first = false;
+        }
+        writeByte('}');
+    }
+
+    /**
+     * Writes an integer without creating any object.
+     * @param value the number
+     * @throws IOException if an error occurs while writing to the sink
+     */
+    public void writeInt(int value) throws IOException {
+        writeLong(value);
+    }
+
+    /**
+     * Writes a long without creating any object, the digits are written from the end two at a time.
+     * @param value the number
+     * @throws IOException if an error occurs while writing to the sink
+     */
+    public void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writeAscii("-9223372036854775808");
+            return;
+        }
+        ensure(20);
+        if (value < 0) {
+            buffer[count++] = '-';
+            value = -value;
+        }
+        int position = count + digits(value);
+        count = position;
+        while (value >= 100) {
+            int pair = (int) (value % 100) << 1;
+            value /= 100;
+            buffer[--position] = PAIRS[pair + 1];
+            buffer[--position] = PAIRS[pair];
+        }
+        if (value >= 10) {
+            int pair = (int) value << 1;
+            buffer[--position] = PAIRS[pair + 1];
+            buffer[--position] = PAIRS[pair];
+        } else {
+            buffer[--position] = (byte) ('0' + value);
+        }
+    }
+
+    private static int digits(long value) {
+        int digits = 1;
+        for (long limit = 10; digits < 19 && value >= limit; limit *= 10) digits++;
+        return digits;
+    }
+
+    /**
+     * Writes a decimal number, NaN and infinities are not valid JSON and are written as null.
+     * @param value the number
+     * @throws IOException if an error occurs while writing to the sink
+     */
+    public void writeDouble(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            writeRaw(NULL);
+        } else {
+            writeAscii(Double.toString(value));
+        }
+    }
+
+    /**
+     * Writes a float with its own shortest form, 0.1f is written as 0.1 and not widened to a double first.
+     * NaN and infinities are written as null.
+     * @param value the number
+     * @throws IOException if an error occurs while writing to the sink
+     */
+    public void writeFloat(float value) throws IOException {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            writeRaw(NULL);
+        } else {
+            writeAscii(Float.toString(value));
+        }
+    }
+
+    /**
+     * Writes true or false.
+     * @param value the boolean
+     * @throws IOException if an error occurs while writing to the sink
+     */
+    public void writeBoolean(boolean value) throws IOException {
+        writeRaw(value ? TRUE : FALSE);
+    }
+
+    /**
+     * Writes a string wrapped in double quotes, escaping and encoding it to UTF-8 in a single pass.
+     * @param s the string to write
+     * @throws IOException if an error occurs while writing to the sink
+     */
+    public void writeString(String s) throws IOException {
+        writeByte('"');
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    writeByte(c);
+                } else {
+                    writeEscaped(c);
+                }
+            } else if (c < 0x800) {
+                ensure(2);
+                buffer[count++] = (byte) (0xC0 | (c >> 6));
+                buffer[count++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                ensure(4);
+                buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                //unpaired surrogate, it cannot be encoded in UTF-8
+                writeByte('?');
+            } else {
+                ensure(3);
+                buffer[count++] = (byte) (0xE0 | (c >> 12));
+                buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[count++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        writeByte('"');
+    }
+
+    private void writeEscaped(char c) throws IOException {
+        ensure(6);
+        buffer[count++] = '\\';
+        switch (c) {
+            case '"': buffer[count++] = '"'; break;
+            case '\\': buffer[count++] = '\\'; break;
+            case '\n': buffer[count++] = 'n'; break;
+            case '\r': buffer[count++] = 'r'; break;
+            case '\t': buffer[count++] = 't'; break;
+            case '\b': buffer[count++] = 'b'; break;
+            case '\f': buffer[count++] = 'f'; break;
+            default:
+                buffer[count++] = 'u';
+                buffer[count++] = '0';
+                buffer[count++] = '0';
+                buffer[count++] = HEX[c >> 4];
+                buffer[count++] = HEX[c & 0xF];
+        }
+    }
+
+    /**
+     * Writes a string that only has ASCII characters, without quotes or escaping.
+     * @param s the ASCII string
+     * @throws IOException if an error occurs while writing to the sink
+     */
+    public void writeAscii(String s) throws IOException {
+        int length = s.length();
+        if (length > buffer.length) {
+            for (int i = 0; i < length; i++) writeByte(s.charAt(i));
+            return;
+        }
+        ensure(length);
+        for (int i = 0; i < length; i++) buffer[count++] = (byte) s.charAt(i);
+    }
+
+    /**
+     * Writes bytes as they are.
+     * @param bytes the bytes to write
+     * @throws IOException if an error occurs while writing to the sink
+     */
+    public void writeRaw(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.length) {
+            flush();
+            flushed = true;
+            sink.write(bytes);
+            return;
+        }
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    /**
+     * Writes a single ASCII character.
+     * @param c the character
+     * @throws IOException if an error occurs while writing to the sink
+     */
+    public void writeByte(int c) throws IOException {
+        if (count == buffer.length) flush();
+        buffer[count++] = (byte) c;
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (count + bytes > buffer.length) flush();
+    }
+
+    /**
+     * Sends the buffered bytes to the sink.
+     * @throws IOException if an error occurs while writing to the sink
+     */
+    public void flush() throws IOException {
+        if (count == 0) return;
+        flushed = true;
+        sink.write(buffer, 0, count);
+        count = 0;
+    }
+
+    /**
+     * Checks if part of the output was already sent to the sink.
+     * @return true if the buffer was flushed at least once
+     */
+    public boolean isFlushed() {
+        return flushed;
+    }
+
+    /**
+     * Gets the bytes written so far, they are the whole output only while the writer was never flushed.
+     * @return copy of the buffered bytes
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, count);
+    }
+
+    /**
+     * Returns the buffer to the pool, the buffered bytes that were not flushed are discarded.
+     */
+    @Override
+    public void close() {
+        if (buffer == null) return;
+        POOL.offer(buffer);
+        buffer = null;
+    }
+}
@@ -0,0 +1,117 @@
+package edu.eci.arep.helpers;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How to serialize the objects of a class, computed once per class and cached in a {@link ClassValue}.
+ * Each property has its quoted name already encoded and a {@link MethodHandle} to read it,
+ * primitive properties are read and written without boxing.
+ */
+final class SerializationPlan {
+    private static final ClassValue<SerializationPlan> PLANS = new ClassValue<>() {
+        @Override
+        protected SerializationPlan computeValue(Class<?> type) {
+            return new SerializationPlan(type);
+        }
+    };
+
+    private enum Kind { INT, LONG, DOUBLE, FLOAT, BOOLEAN, SHORT, BYTE, CHAR, OBJECT }
+
+    /**
+     * A property of the class: the bytes written before its value ({@code ,"name":})
+     * and the accessor of its value, adapted to take an Object.
+     */
+    private record Property(byte[] prefix, Kind kind, MethodHandle getter) {}
+
+    private final Property[] properties;
+
+    /**
+     * Gets the plan of a class, computing it the first time.
+     * @param type class of the objects to serialize
+     * @return plan of the class
+     */
+    static SerializationPlan of(Class<?> type) {
+        return PLANS.get(type);
+    }
+
+    private SerializationPlan(Class<?> type) {
+        List<Property> list = new ArrayList<>();
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+            if (type.isRecord()) {
+                for (RecordComponent component : type.getRecordComponents()) {
+                    list.add(property(list.isEmpty(), component.getName(), component.getType(), lookup.unreflect(component.getAccessor())));
+                }
+            } else {
+                for (Field field : type.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())) continue;
+                    list.add(property(list.isEmpty(), field.getName(), field.getType(), lookup.unreflectGetter(field)));
+                }
+            }
+        } catch (IllegalAccessException e) {
+            //classes of modules that are not open to us are serialized as empty objects
+            list.clear();
+        }
+        this.properties = list.toArray(new Property[0]);
+    }
+
+    private static Property property(boolean first, String name, Class<?> type, MethodHandle getter) {
+        byte[] prefix = ((first ? "\"" : ",\"") + name + "\":").getBytes(StandardCharsets.UTF_8);
+        Kind kind = kindOf(type);
+        Class<?> returned = kind == Kind.OBJECT ? Object.class : type;
+        return new Property(prefix, kind, getter.asType(MethodType.methodType(returned, Object.class)));
+    }
+
+    private static Kind kindOf(Class<?> type) {
+        if (type == int.class) return Kind.INT;
+        if (type == long.class) return Kind.LONG;
+        if (type == double.class) return Kind.DOUBLE;
+        if (type == float.class) return Kind.FLOAT;
+        if (type == boolean.class) return Kind.BOOLEAN;
+        if (type == short.class) return Kind.SHORT;
+        if (type == byte.class) return Kind.BYTE;
+        if (type == char.class) return Kind.CHAR;
+        return Kind.OBJECT;
+    }
+
+    /**
+     * Writes an object of the class as a JSON object.
+     * @param obj object to serialize
+     * @param writer writer that receives the JSON
+     * @throws IOException if an error occurs while writing
+     */
+    void write(Object obj, JsonWriter writer) throws IOException {
+        writer.writeByte('{');
+        try {
+            for (Property property : properties) {
+                writer.writeRaw(property.prefix);
+                MethodHandle getter = property.getter;
+                switch (property.kind) {
+                    case INT -> writer.writeInt((int) getter.invokeExact(obj));
+                    case LONG -> writer.writeLong((long) getter.invokeExact(obj));
+                    case SHORT -> writer.writeInt((short) getter.invokeExact(obj));
+                    case BYTE -> writer.writeInt((byte) getter.invokeExact(obj));
+                    case DOUBLE -> writer.writeDouble((double) getter.invokeExact(obj));
+                    case FLOAT -> writer.writeFloat((float) getter.invokeExact(obj));
+                    case BOOLEAN -> writer.writeBoolean((boolean) getter.invokeExact(obj));
+                    case CHAR -> writer.writeString(String.valueOf((char) getter.invokeExact(obj)));
+                    case OBJECT -> writer.writeValue((Object) getter.invokeExact(obj));
+                }
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Accessor failed for " + obj.getClass().getName(), e);
+        }
+        writer.writeByte('}');
+    }
+}
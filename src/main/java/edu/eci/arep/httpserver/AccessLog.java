@@ -0,0 +1,278 @@
+package edu.eci.arep.httpserver;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Access log with one line per request: time, method, path, status, bytes of the body and latency.
+ * The threads that serve the requests only claim a slot of a fixed ring with a compare-and-set and fill it,
+ * they never wait: when the ring is full the entry is dropped and counted. A background thread drains the
+ * ring in batches, formats the lines and appends them to a file that is rotated when it reaches its size limit
+ * (access.log, access.log.1, ... up to the number of files kept).
+ */
+public class AccessLog implements Closeable {
+    /**
+     * Requests that are logged.
+     */
+    public enum Level {
+        /** Nothing is logged. */
+        OFF,
+        /** Only the responses with status 400 or above. */
+        ERRORS,
+        /** Every response, successful ones are sampled. */
+        ALL
+    }
+
+    /**
+     * Slot of the ring. Its sequence tells whose turn it is: the producer of position p may fill it while
+     * the sequence is p, the consumer may read it once the sequence is p + 1.
+     */
+    private static final class Entry {
+        volatile long sequence;
+        long time;
+        String method;
+        String path;
+        int status;
+        long bytes;
+        long latencyNanos;
+
+        Entry(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+
+    private static final int BATCH_SIZE = 256;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final Path file;
+    private final Level level;
+    private final double sampleRate;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final Entry[] ring;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    //only read and written by the writer thread
+    private long head;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final Thread writer;
+    private volatile boolean closed;
+    private OutputStream out;
+    private long fileBytes;
+
+    /**
+     * Opens the log and starts its writer thread.
+     * @param file file of the log, its directory is created if needed
+     * @param level requests that are logged
+     * @param sampleRate fraction of the successful responses that are logged, from 0 to 1; errors are always logged
+     * @param maxFileBytes size at which the file is rotated
+     * @param maxFiles number of rotated files kept besides the current one
+     * @param capacity entries that can wait to be written, rounded up to a power of two
+     * @throws IOException if the file cannot be opened
+     * @throws IllegalArgumentException if the rate is not between 0 and 1 or a size is not positive
+     */
+    public AccessLog(Path file, Level level, double sampleRate, long maxFileBytes, int maxFiles, int capacity) throws IOException {
+        if (sampleRate < 0 || sampleRate > 1) throw new IllegalArgumentException("Access log: sample rate must be between 0 and 1");
+        if (maxFileBytes <= 0 || maxFiles < 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Access log: sizes must be positive");
+        }
+        this.file = file;
+        this.level = level;
+        this.sampleRate = sampleRate;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.ring = new Entry[size];
+        for (int i = 0; i < size; i++) ring[i] = new Entry(i);
+        this.mask = size - 1;
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        open();
+        writer = Thread.ofPlatform().name("access-log").daemon().start(this::writeLoop);
+    }
+
+    /**
+     * Checks if a response is logged.
+     * @param status status of the response
+     * @return true if the level and the sampling accept it
+     */
+    private boolean accepts(int status) {
+        if (level == Level.OFF) return false;
+        if (status >= 400) return true;
+        return level == Level.ALL && (sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate);
+    }
+
+    /**
+     * Records a request, it never blocks: the entry is dropped if the writer is behind and the ring is full.
+     * The level and the sampling are applied first.
+     * @param method method of the request, null if it could not be parsed
+     * @param path target of the request, null if it could not be parsed
+     * @param status status of the response
+     * @param bytes bytes of the body of the response, -1 if unknown
+     * @param latencyNanos time from the request being parsed to the response being written
+     * @return true if the entry was queued
+     */
+    public boolean log(String method, String path, int status, long bytes, long latencyNanos) {
+        if (closed || !accepts(status)) return false;
+        long position = tail.get();
+        while (true) {
+            Entry entry = ring[(int) (position & mask)];
+            long difference = entry.sequence - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    entry.time = System.currentTimeMillis();
+                    entry.method = method;
+                    entry.path = path;
+                    entry.status = status;
+                    entry.bytes = bytes;
+                    entry.latencyNanos = latencyNanos;
+                    //publishes the fields to the writer
+                    entry.sequence = position + 1;
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                //the slot was not read yet, the ring is full
+                dropped.increment();
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of entries dropped because the ring was full.
+     * @return entries dropped since the log was opened
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Gets the number of lines written to the files.
+     * @return lines written since the log was opened
+     */
+    public long getWritten() {
+        return written.sum();
+    }
+
+    /**
+     * Writes the entries that are waiting and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        StringBuilder line = new StringBuilder(256);
+        try {
+            while (true) {
+                boolean stopping = closed;
+                int count = drain(line);
+                if (count > 0) {
+                    written.add(count);
+                } else if (stopping) {
+                    break;
+                } else {
+                    out.flush();
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Access log failed: " + e.getMessage());
+        } finally {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Takes up to a batch of entries from the ring and writes their lines to the buffer of the file.
+     * @return number of entries taken
+     */
+    private int drain(StringBuilder line) throws IOException {
+        int count = 0;
+        while (count < BATCH_SIZE) {
+            Entry entry = ring[(int) (head & mask)];
+            if (entry.sequence != head + 1) break;
+            line.setLength(0);
+            line.append(Instant.ofEpochMilli(entry.time))
+                    .append(" method=").append(entry.method == null ? "-" : entry.method)
+                    .append(" path=").append(entry.path == null ? "-" : entry.path)
+                    .append(" status=").append(entry.status)
+                    .append(" bytes=");
+            if (entry.bytes < 0) line.append('-');
+            else line.append(entry.bytes);
+            line.append(" latency_us=").append(entry.latencyNanos / 1000).append('\n');
+            entry.method = null;
+            entry.path = null;
+            //frees the slot for the producer of the next lap
+            entry.sequence = head + ring.length;
+            head++;
+            count++;
+            write(line);
+        }
+        return count;
+    }
+
+    /**
+     * Appends a line, rotating the file first if the line does not fit in it.
+     */
+    private void write(StringBuilder line) throws IOException {
+        byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+        if (fileBytes > 0 && fileBytes + bytes.length > maxFileBytes) rotate();
+        out.write(bytes);
+        fileBytes += bytes.length;
+    }
+
+    /**
+     * Renames access.log to access.log.1, access.log.1 to access.log.2 and so on, the oldest is deleted.
+     */
+    private void rotate() throws IOException {
+        out.close();
+        if (maxFiles == 0) {
+            Files.deleteIfExists(file);
+        } else {
+            Files.deleteIfExists(rotated(maxFiles));
+            for (int i = maxFiles - 1; i >= 1; i--) {
+                if (Files.exists(rotated(i))) Files.move(rotated(i), rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        open();
+    }
+
+    private Path rotated(int index) {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+
+    private void open() throws IOException {
+        out = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND), 64 * 1024);
+        fileBytes = Files.size(file);
+    }
+}
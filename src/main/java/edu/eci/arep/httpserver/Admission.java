@@ -0,0 +1,106 @@
+package edu.eci.arep.httpserver;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the requests processed at the same time. A request that finds every slot taken waits in a bounded
+ * queue for a short time, and when the queue is full or the wait expires it is shed: the client receives
+ * a 503 with Retry-After that was encoded once, so an overloaded server spends almost nothing on it,
+ * and the admitted requests keep their latency instead of every request queuing behind the others.
+ */
+final class Admission {
+    //response of the connections rejected by a full thread pool when no admission is configured
+    static final HttpResponse OVERLOADED = overloaded(1);
+    static final byte[] OVERLOADED_BYTES = encode(OVERLOADED);
+
+    private final Semaphore slots;
+    private final int maxInFlight;
+    private final int maxQueued;
+    private final long queueTimeoutNanos;
+    private final AtomicInteger queued = new AtomicInteger();
+    //response of the shed requests, encoded once with its head
+    final HttpResponse rejection;
+    final byte[] rejectionBytes;
+
+    /**
+     * @param maxInFlight requests processed at the same time
+     * @param maxQueued requests that can wait for a slot, 0 to shed as soon as every slot is taken
+     * @param queueTimeoutMillis time a request waits for a slot before it is shed
+     * @param retryAfterSeconds value of the Retry-After header of the shed requests
+     */
+    Admission(int maxInFlight, int maxQueued, int queueTimeoutMillis, int retryAfterSeconds) {
+        this.slots = new Semaphore(maxInFlight);
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+        this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+        this.rejection = overloaded(retryAfterSeconds);
+        this.rejectionBytes = encode(rejection);
+    }
+
+    /**
+     * Builds the response of a request shed because the server is overloaded, it closes the connection.
+     * @param retryAfterSeconds seconds after which the client can try again
+     * @return complete 503 response
+     */
+    static HttpResponse overloaded(int retryAfterSeconds) {
+        HttpResponse response = new HttpResponse(503, "Server overloaded, try again later")
+                .header("Retry-After", String.valueOf(retryAfterSeconds));
+        HttpServer.completeResponse(response, Map.of(), false);
+        return response;
+    }
+
+    /**
+     * Encodes a complete response, head and body, in a single array.
+     * @param response response with its body in memory
+     * @return bytes of the response
+     */
+    static byte[] encode(HttpResponse response) {
+        ByteBuffer head = ResponseHead.encode(response);
+        byte[] bytes = new byte[head.remaining() + response.getBody().length];
+        head.get(bytes, 0, head.remaining());
+        ResponseHead.release(head);
+        System.arraycopy(response.getBody(), 0, bytes, bytes.length - response.getBody().length, response.getBody().length);
+        return bytes;
+    }
+
+    /**
+     * Takes a slot, waiting in the queue for one if they are all taken and the queue has room.
+     * @return true if the request is admitted, it must then call release; false if it is shed
+     */
+    boolean acquire() {
+        if (slots.tryAcquire()) return true;
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            HttpServer.metrics.shed();
+            return false;
+        }
+        try {
+            if (slots.tryAcquire(queueTimeoutNanos, TimeUnit.NANOSECONDS)) return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            queued.decrementAndGet();
+        }
+        HttpServer.metrics.shed();
+        return false;
+    }
+
+    /**
+     * Gives back the slot of an admitted request.
+     */
+    void release() {
+        slots.release();
+    }
+
+    /**
+     * Gets the number of requests being processed.
+     * @return requests holding a slot
+     */
+    int inFlight() {
+        return maxInFlight - slots.availablePermits();
+    }
+}
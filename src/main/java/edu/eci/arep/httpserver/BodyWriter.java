@@ -0,0 +1,16 @@
+package edu.eci.arep.httpserver;
+
+import java.io.IOException;
+
+/**
+ * Writes the body of a response while it is being sent, instead of building it before.
+ */
+@FunctionalInterface
+public interface BodyWriter {
+    /**
+     * Writes the body.
+     * @param body stream of the body, bound to the connection
+     * @throws IOException if an error occurs while writing
+     */
+    void writeBody(ResponseBody body) throws IOException;
+}
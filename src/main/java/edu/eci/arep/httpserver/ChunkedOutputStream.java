@@ -0,0 +1,92 @@
+package edu.eci.arep.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Frames a body with the chunked transfer coding. The bytes are gathered in a buffer that has room
+ * before the data for the size line and after it for the final CRLF, so every chunk is written
+ * to the connection with a single write.
+ */
+class ChunkedOutputStream extends OutputStream {
+    static final int CHUNK_SIZE = 8 * 1024;
+    //room for the size in hexadecimal and its CRLF
+    private static final int PREFIX = 10;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[PREFIX + CHUNK_SIZE + 2];
+    private int count;
+
+    ChunkedOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == CHUNK_SIZE) writeChunk();
+        buffer[PREFIX + count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == CHUNK_SIZE) writeChunk();
+            int n = Math.min(len, CHUNK_SIZE - count);
+            System.arraycopy(b, off, buffer, PREFIX + count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Sends the buffered bytes as a chunk and flushes the connection.
+     * @throws IOException if an error occurs while writing to the connection
+     */
+    @Override
+    public void flush() throws IOException {
+        writeChunk();
+        out.flush();
+    }
+
+    private void writeChunk() throws IOException {
+        if (count == 0) return;
+        int start = PREFIX - 2;
+        buffer[start] = '\r';
+        buffer[start + 1] = '\n';
+        int size = count;
+        do {
+            buffer[--start] = HEX[size & 0xF];
+            size >>>= 4;
+        } while (size != 0);
+        buffer[PREFIX + count] = '\r';
+        buffer[PREFIX + count + 1] = '\n';
+        out.write(buffer, start, PREFIX + count + 2 - start);
+        count = 0;
+    }
+
+    /**
+     * Sends the buffered bytes, the last chunk and the trailers.
+     * @param trailers fields sent after the body, may be empty
+     * @throws IOException if an error occurs while writing to the connection
+     */
+    void finish(Map<String, String> trailers) throws IOException {
+        writeChunk();
+        StringBuilder end = new StringBuilder("0\r\n");
+        for (Map.Entry<String, String> trailer : trailers.entrySet()) {
+            end.append(trailer.getKey()).append(": ").append(trailer.getValue()).append("\r\n");
+        }
+        end.append("\r\n");
+        out.write(end.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        //the connection is closed by the server, not by the body
+        flush();
+    }
+}
@@ -0,0 +1,144 @@
+package edu.eci.arep.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content negotiation and compression of the response bodies with gzip or deflate.
+ * Only bodies of the allowed content-types and of at least the minimum size are compressed.
+ */
+class Compression {
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    static volatile int minSize = 1024;
+    static volatile Set<String> mimeTypes = Set.of("text/html", "text/css", "text/plain", "text/javascript",
+            "application/javascript", "application/json", "application/x-ndjson", "image/svg+xml");
+
+    private Compression() {}
+
+    /**
+     * Checks if a body should be compressed.
+     * @param contentType content-type of the body, its parameters are ignored
+     * @param length number of bytes of the body
+     * @return true if the type is in the allowlist and the body reaches the minimum size
+     */
+    static boolean isCompressible(String contentType, long length) {
+        if (contentType == null || length < minSize) return false;
+        int semicolon = contentType.indexOf(';');
+        String type = (semicolon < 0 ? contentType : contentType.substring(0, semicolon)).trim().toLowerCase();
+        return mimeTypes.contains(type);
+    }
+
+    /**
+     * Chooses the encoding of the response from the Accept-Encoding header, gzip is preferred over deflate.
+     * A coding refused with q=0 is never chosen, even when * accepts every coding.
+     * @param acceptEncoding value of the header, may be null
+     * @return gzip, deflate or null when the client accepts neither
+     */
+    static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) return null;
+        //1 accepted, -1 refused with q=0, 0 not listed
+        int gzip = 0, deflate = 0;
+        boolean any = false;
+        for (String option : acceptEncoding.split(",")) {
+            String[] parts = option.trim().split(";");
+            String coding = parts[0].trim().toLowerCase();
+            boolean accepted = true;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        accepted = Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        accepted = false;
+                    }
+                }
+            }
+            if (coding.equals(GZIP) || coding.equals("x-gzip")) gzip = accepted ? 1 : -1;
+            else if (coding.equals(DEFLATE)) deflate = accepted ? 1 : -1;
+            else if (coding.equals("*")) any = accepted;
+        }
+        if (gzip == 1 || (any && gzip == 0)) return GZIP;
+        if (deflate == 1 || (any && deflate == 0)) return DEFLATE;
+        return null;
+    }
+
+    /**
+     * Compresses a body of a dynamic response, favoring speed since it is done on every request.
+     * @param body bytes to compress
+     * @param encoding gzip or deflate
+     * @return compressed bytes
+     */
+    static byte[] compress(byte[] body, String encoding) {
+        return compress(body, encoding, Deflater.BEST_SPEED);
+    }
+
+    /**
+     * Compresses a body with a given level.
+     * @param body bytes to compress
+     * @param encoding gzip or deflate
+     * @param level deflater level, from 0 to 9
+     * @return compressed bytes
+     */
+    static byte[] compress(byte[] body, String encoding, int level) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+        try (OutputStream out = wrap(compressed, encoding, level)) {
+            out.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Wraps a stream so everything written to it is compressed.
+     * @param out stream that receives the compressed bytes
+     * @param encoding gzip or deflate
+     * @param level deflater level, from 0 to 9
+     * @return compressing stream, closing it finishes the compressed data and closes out
+     * @throws IOException if the gzip header cannot be written
+     */
+    static OutputStream wrap(OutputStream out, String encoding, int level) throws IOException {
+        if (GZIP.equals(encoding)) {
+            return new GZIPOutputStream(out, 8192, true) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        }
+        return new DeflaterOutputStream(out, new Deflater(level), 8192, true) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                def.end();
+            }
+        };
+    }
+
+    /**
+     * Compresses the in-memory body of a response when the client accepts it and the body is worth it.
+     * Every compressible response is marked with Vary: Accept-Encoding so caches keep both versions.
+     * A response with an ETag is left as it is: its validator belongs to those exact bytes, and the static
+     * files already chose between their identity and their precompressed version.
+     * @param response response to compress
+     * @param headers headers of the request
+     */
+    static void apply(HttpResponse response, Map<String, String> headers) {
+        byte[] body = response.getBody();
+        if (body == null || response.getHeaders().containsKey("Content-Encoding") || response.getHeaders().containsKey("ETag")) return;
+        if (!isCompressible(response.getHeaders().get("Content-Type"), body.length)) return;
+        response.header("Vary", "Accept-Encoding");
+        String encoding = negotiate(headers.get("accept-encoding"));
+        if (encoding == null) return;
+        response.body = compress(body, encoding);
+        response.header("Content-Encoding", encoding);
+    }
+}
@@ -1,36 +1,252 @@
 package edu.eci.arep.httpserver;
 
+import edu.eci.arep.helpers.JsonReader;
+
 import java.net.URI;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
+/**
+ * Request received by a service. Its parts are kept as they arrived and decoded only when they are asked for:
+ * a query parameter is percent-decoded when it is looked up, a header when it is read, the body when it is
+ * read as text or bound from JSON.
+ */
 public class HttpRequest {
     URI uri;
-    Map<String, String> parameters = new HashMap<>();
+    //query as received, still percent-encoded
+    String rawQuery;
+    //every query parameter decoded, only built when all of them are asked for
+    Map<String, List<String>> parameters;
+    String method = "GET";
+    Map<String, String> headers = Map.of();
+    byte[] body = new byte[0];
+    //body decoded as text, the first time it is asked for
+    String text;
+    //names of the path parameters and their bounds inside the path, filled by the router;
+    //the bounds belong to the connection and are only valid while the request is processed
+    String[] paramNames = new String[0];
+    int[] paramBounds = Router.NO_PARAMS;
     public HttpRequest(URI requri){
         this.uri = requri;
-        if(uri.getQuery() != null) setParamValues();
+        this.rawQuery = requri.getRawQuery();
+    }
+
+    /**
+     * Creates a request matched by the router.
+     * @param requri URI of the request
+     * @param method HTTP method of the request
+     * @param headers headers of the request, looked up by name in any case
+     * @param body bytes of the body of the request, empty if it has none
+     * @param paramNames names of the path parameters of the route
+     * @param paramBounds start and end of each path parameter inside the path of the URI
+     */
+    HttpRequest(URI requri, String method, Map<String, String> headers, byte[] body, String[] paramNames, int[] paramBounds){
+        this(requri);
+        this.method = method;
+        this.headers = headers;
+        if (body != null) this.body = body;
+        this.paramNames = paramNames;
+        this.paramBounds = paramBounds;
     }
 
     /**
-     * Stores the parameters
+     * Decodes and stores every query parameter, in the order they appear in the query
      */
     public void setParamValues(){
-        String[] values = uri.getQuery().split("&");
-        for(String value : values){
-            String[] keyValue = value.split("=");
-            if(keyValue.length > 1){
-                parameters.put(keyValue[0], keyValue[1]);
+        Map<String, List<String>> all = new LinkedHashMap<>();
+        if(rawQuery != null){
+            int start = 0;
+            while(start <= rawQuery.length()){
+                int end = rawQuery.indexOf('&', start);
+                if(end < 0) end = rawQuery.length();
+                if(end > start){
+                    int equals = separator(start, end);
+                    String name = decode(rawQuery, start, equals);
+                    String value = equals < end ? decode(rawQuery, equals + 1, end) : "";
+                    all.computeIfAbsent(name, n -> new ArrayList<>()).add(value);
+                }
+                start = end + 1;
             }
         }
+        all.replaceAll((name, values) -> Collections.unmodifiableList(values));
+        parameters = Collections.unmodifiableMap(all);
     }
 
     /**
-     * Retrieves the value of a query parameter
+     * Retrieves the value of a query parameter, only the pairs of the query with that name are decoded
      * @param paraName the name of the parameter to look up
-     * @return the parameter value
+     * @return the first value of the parameter, null if the query does not have it or it has no value
      */
     public String getValues(String paraName){
-        return parameters.get(paraName);
+        if(parameters != null){
+            List<String> values = parameters.get(paraName);
+            return values == null || values.get(0).isEmpty() ? null : values.get(0);
+        }
+        if(rawQuery == null) return null;
+        int start = 0;
+        while(start <= rawQuery.length()){
+            int end = rawQuery.indexOf('&', start);
+            if(end < 0) end = rawQuery.length();
+            int equals = separator(start, end);
+            if(end > start && nameMatches(start, equals, paraName)){
+                return equals + 1 < end ? decode(rawQuery, equals + 1, end) : null;
+            }
+            start = end + 1;
+        }
+        return null;
+    }
+
+    /**
+     * Retrieves every value of a query parameter that is repeated, such as ?tag=a&amp;tag=b
+     * @param paraName the name of the parameter to look up
+     * @return the values in the order they appear, empty if the query does not have the parameter
+     */
+    public List<String> getAllValues(String paraName){
+        List<String> values = getParameters().get(paraName);
+        return values == null ? List.of() : values;
+    }
+
+    /**
+     * Retrieves every query parameter, decoding all of them the first time
+     * @return the values of each parameter, in the order they appear in the query
+     */
+    public Map<String, List<String>> getParameters(){
+        if(parameters == null) setParamValues();
+        return parameters;
+    }
+
+    /**
+     * Finds the '=' that separates the name from the value of a pair of the query.
+     * @return position of the separator, end if the pair has no value
+     */
+    private int separator(int start, int end){
+        int equals = rawQuery.indexOf('=', start);
+        return equals < 0 || equals > end ? end : equals;
+    }
+
+    /**
+     * Compares the name of a pair of the query with a parameter name, decoding the name only if it is encoded.
+     */
+    private boolean nameMatches(int start, int end, String name){
+        for(int i = start; i < end; i++){
+            char c = rawQuery.charAt(i);
+            if(c == '%' || c == '+') return decode(rawQuery, start, end).equals(name);
+        }
+        return end - start == name.length() && rawQuery.regionMatches(start, name, 0, end - start);
+    }
+
+    /**
+     * Decodes a part of a query: '+' is a space and %XX is a byte, the bytes are read as UTF-8.
+     * A '%' that is not followed by two hexadecimal digits is kept as it is. Characters up to 0xFF that
+     * were not encoded are taken as the bytes received, other characters are encoded in UTF-8.
+     * @param s the query
+     * @param start position of the first character
+     * @param end position after the last character
+     * @return the decoded text
+     */
+    static String decode(String s, int start, int end){
+        int i = start;
+        while(i < end && s.charAt(i) != '%' && s.charAt(i) != '+' && s.charAt(i) < 0x80) i++;
+        if(i == end) return s.substring(start, end);
+        byte[] decoded = new byte[(end - start) * 3];
+        int n = 0;
+        for(i = start; i < end; i++){
+            char c = s.charAt(i);
+            int high, low;
+            if(c == '+'){
+                decoded[n++] = ' ';
+            }else if(c == '%' && i + 2 < end && (high = Character.digit(s.charAt(i + 1), 16)) >= 0
+                    && (low = Character.digit(s.charAt(i + 2), 16)) >= 0){
+                decoded[n++] = (byte) (high << 4 | low);
+                i += 2;
+            }else if(c <= 0xFF){
+                decoded[n++] = (byte) c;
+            }else{
+                //a character of a URI built in code
+                int codePoint = s.codePointAt(i);
+                if(Character.charCount(codePoint) == 2) i++;
+                byte[] utf8 = new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8);
+                System.arraycopy(utf8, 0, decoded, n, utf8.length);
+                n += utf8.length;
+            }
+        }
+        return new String(decoded, 0, n, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Retrieves the value of a path parameter, declared in the route as {name}
+     * @param paramName the name of the parameter to look up
+     * @return the parameter value, null if the route does not have it
+     */
+    public String getParam(String paramName){
+        for(int i = 0; i < paramNames.length; i++){
+            if(paramNames[i].equals(paramName)) return uri.getPath().substring(paramBounds[i * 2], paramBounds[i * 2 + 1]);
+        }
+        return null;
+    }
+
+    /**
+     * Retrieves the HTTP method of the request
+     * @return the method, such as GET or POST
+     */
+    public String getMethod(){
+        return method;
+    }
+
+    /**
+     * Retrieves the path of the request
+     * @return the decoded path, without the query
+     */
+    public String getPath(){
+        return uri.getPath();
+    }
+
+    /**
+     * Retrieves the value of a header
+     * @param name the name of the header, in any case
+     * @return the header value, null if the request does not have it
+     */
+    public String getHeader(String name){
+        return headers.get(name);
+    }
+
+    /**
+     * Retrieves every header of the request, iterating them decodes all of them
+     * @return read-only map of the headers, names are in lower case and are looked up in any case
+     */
+    public Map<String, String> getHeaders(){
+        return headers;
+    }
+
+    /**
+     * Retrieves the body of the request, decoded as UTF-8
+     * @return the body, empty if the request does not have one
+     */
+    public String getBody(){
+        if (text == null) text = new String(body, StandardCharsets.UTF_8);
+        return text;
+    }
+
+    /**
+     * Retrieves the bytes of the body of the request, as they were received
+     * @return the bytes of the body, empty if the request does not have one
+     */
+    public byte[] getBodyBytes(){
+        return body;
+    }
+
+    /**
+     * Reads the body of the request as JSON and binds it to a class
+     * @param type the class of the result
+     * @return the bound object, null if the body is the JSON null
+     * @throws edu.eci.arep.helpers.JsonException if the body is not valid JSON or exceeds the limits,
+     * the server answers 400 or 413 when a service does not catch it
+     */
+    public <T> T getBody(Class<T> type){
+        return JsonReader.read(body, type);
     }
 }
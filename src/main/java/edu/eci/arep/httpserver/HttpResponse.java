@@ -1,19 +1,33 @@
 package edu.eci.arep.httpserver;
 
+import edu.eci.arep.helpers.JsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
-import static edu.eci.arep.helpers.JsonConverter.toJson;
-
 public class HttpResponse {
+    static final String NDJSON = "application/x-ndjson";
     int statusCode=200;
     String statusMessage="OK";
     Map<String, String> headers = new LinkedHashMap<>();
     byte[] body;
+    Path file;
+    long fileLength;
+    //object sent as JSON, it is serialized when the response is written
+    Object entity;
+    //writer of a body produced while it is sent
+    BodyWriter bodyWriter;
+    //label of the metrics: pattern of the route, "static", "metrics", or null when no route matched
+    String route;
     public HttpResponse(int statusCode, Object body) {
         this.statusCode = statusCode;
-        this.body = toByte(body);
+        body(body);
         setStatusMessage();
     }
     public HttpResponse(){}
@@ -38,12 +52,66 @@ public class HttpResponse {
         return this;
     }
     /**
-     *Set the body of the response
+     *Set the body of the response, objects, lists, primitive arrays (int[], long[], double[]) and
+     * primitive streams (IntStream, LongStream, DoubleStream) are sent as JSON
      * @param body object to response
      * @return HttpResponse object
      */
     public HttpResponse body(Object body) {
-        this.body = toByte(body);
+        this.file = null;
+        this.entity = null;
+        this.body = null;
+        this.bodyWriter = null;
+        if(body instanceof byte[] || body instanceof String){
+            this.body = toByte(body);
+        }else if(body != null){
+            //if the object is type json, and does not have content.type header, set application/json automatically
+            headers.putIfAbsent("Content-Type","application/json");
+            this.entity = body;
+        }
+        return this;
+    }
+
+    /**
+     *Set a file as the body of the response, it is streamed from disk when the response is written
+     * instead of being loaded in memory
+     * @param path file to send
+     * @return HttpResponse object
+     * @throws IOException if the size of the file cannot be read
+     */
+    public HttpResponse file(Path path) throws IOException {
+        this.fileLength = Files.size(path);
+        this.file = path;
+        this.body = null;
+        this.entity = null;
+        this.bodyWriter = null;
+        return this;
+    }
+    /**
+     *Set a file of a known length as the body of the response
+     * @param path file to send
+     * @param length number of bytes of the file
+     * @return HttpResponse object
+     */
+    HttpResponse file(Path path, long length) {
+        this.file = path;
+        this.fileLength = length;
+        this.body = null;
+        this.entity = null;
+        this.bodyWriter = null;
+        return this;
+    }
+    /**
+     *Set a body that is written while it is sent, its bytes go to the client in chunks as they are written
+     * so the response can start before the whole body exists
+     * @param writer writer of the body, it receives a stream bound to the connection
+     * @return HttpResponse object
+     */
+    public HttpResponse stream(BodyWriter writer) {
+        this.file = null;
+        this.body = null;
+        this.entity = null;
+        this.bodyWriter = writer;
         return this;
     }
 
@@ -59,6 +127,68 @@ public class HttpResponse {
     public byte[] getBody() {
         return body;
     }
+    public Path getFile() {
+        return file;
+    }
+    /**
+     * Gets the writer of a body produced while it is sent
+     * @return writer of the body, null if the body is not streamed
+     */
+    public BodyWriter getBodyWriter() {
+        return bodyWriter;
+    }
+    /**
+     * Gets the object that will be serialized as JSON when the response is written
+     * @return object of the body, null if the body is not JSON
+     */
+    public Object getEntity() {
+        return entity;
+    }
+    /**
+     * Serializes the JSON object of the body, for the writers that need the whole body in memory
+     */
+    void serializeEntity() {
+        if (entity == null) return;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writeEntity(writer);
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        body = out.toByteArray();
+        entity = null;
+    }
+    /**
+     * Writes the JSON object of the body. When the content-type is application/x-ndjson and the object
+     * is iterable, each element is written on its own line instead of as an array.
+     * @param writer writer that receives the JSON
+     * @throws IOException if an error occurs while writing
+     */
+    void writeEntity(JsonWriter writer) throws IOException {
+        String contentType = headers.get("Content-Type");
+        if (entity instanceof Iterable<?> lines && contentType != null && contentType.startsWith(NDJSON)) {
+            writer.writeLines(lines);
+        } else {
+            writer.writeValue(entity);
+        }
+    }
+    /**
+     * Gets the number of bytes of the body, whether it is in memory or in a file
+     * @return length of the body, -1 if it is a JSON object that was not serialized yet or a streamed body
+     */
+    public long getContentLength() {
+        if (file != null) return fileLength;
+        if (entity != null || bodyWriter != null) return -1;
+        return body == null ? 0 : body.length;
+    }
+    /**
+     * Checks if the response has a body
+     * @return true if the response has a body in memory, in a file or streamed
+     */
+    public boolean hasBody() {
+        return body != null || file != null || entity != null || bodyWriter != null;
+    }
     /**
      *Set the value of content-type header
      * @param v content-type value
@@ -75,40 +205,12 @@ public class HttpResponse {
      *Gets the Status Message based on the Status Code
      **/
     public void setStatusMessage() {
-        switch (statusCode) {
-            case 200:
-                statusMessage = "OK";
-                break;
-            case 204:
-                statusMessage = "No Content";
-                break;
-            case 400:
-                statusMessage = "Bad Request";
-                break;
-            case 401:
-                statusMessage = "Unauthorized";
-                break;
-            case 403:
-                statusMessage = "Forbidden";
-                break;
-            case 404:
-                statusMessage = "Not Found";
-                break;
-            case 405:
-                statusMessage = "Method Not Allowed";
-                break;
-            case 406:
-                statusMessage = "Not Acceptable";
-                break;
-            default:
-                statusMessage = "Internal Server Error";
-                break;
-        }
+        statusMessage = ResponseHead.message(statusCode);
     }
 
     /**
      * Converts the body object to bytes
-     * @param obj The object to convert
+     * @param obj The object to convert, a byte array or a string
      * @return object converted to byte
      */
     private byte[] toByte(Object obj){
@@ -116,12 +218,7 @@ public class HttpResponse {
             headers.putIfAbsent("Content-Type","application/octet-stream");
             return (byte[])obj;
         }
-        else if(obj instanceof String){
-            return ((String)obj).getBytes(StandardCharsets.UTF_8);
-        }
-        //if the object is type json, and does not have content.type header, set application/json automatically
-        headers.putIfAbsent("Content-Type","application/json");
-        return toJson(obj).getBytes(StandardCharsets.UTF_8);
+        return ((String)obj).getBytes(StandardCharsets.UTF_8);
     }
 
 
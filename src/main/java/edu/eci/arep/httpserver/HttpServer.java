@@ -1,144 +1,762 @@
 package edu.eci.arep.httpserver;
 
-import edu.eci.arep.classes.Task;
+import edu.eci.arep.helpers.JsonException;
+import edu.eci.arep.helpers.JsonWriter;
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URI;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashMap;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
 import java.util.Map;
-
-import static edu.eci.arep.classes.TaskManager.getTaskManager;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 public class HttpServer {
-    static Map<String,Service> services = new HashMap<>();
-    static String dir;
+    static final Router router = new Router();
+    //extensions of the files served outside /app
+    static final Set<String> staticExtensions = Set.of("html", "htm", "js", "css", "png", "jpg", "jpeg");
+    static volatile String dir;
+    static volatile StaticFileCache staticCache;
+    static long staticCacheBytes = 16 * 1024 * 1024;
+    static long zeroCopyThreshold = 256 * 1024;
+    //Cache-Control header of the static files by extension, the pages are always validated
+    static Map<String, String> cacheControls = new ConcurrentHashMap<>(Map.of(
+            "html", "no-cache", "htm", "no-cache",
+            "css", "public, max-age=3600", "js", "public, max-age=3600",
+            "png", "public, max-age=86400", "jpg", "public, max-age=86400", "jpeg", "public, max-age=86400"));
     static int port = 35000;
+    //0 means one virtual thread per connection, any other value a fixed pool of platform threads
+    static int poolSize = 0;
+    //connections that can wait for a thread of the pool, the ones above it are answered with 503
+    static int poolQueue = 1024;
+    //connections waiting to be accepted, 0 means the default of the system
+    static int backlog = 0;
+    static volatile boolean running;
+    static volatile ServerSocket serverSocket;
+    static int keepAliveTimeout = 5000;
+    static int keepAliveMaxRequests = 100;
+    //time to receive the head of a request from its first byte, its body from the end of the head, and to write a response;
+    //the idle time between requests is keepAliveTimeout
+    static int readHeaderTimeout = 10000;
+    static int readBodyTimeout = 30000;
+    static int writeTimeout = 30000;
+    //limit of the requests processed at the same time, null when every request is admitted
+    static volatile Admission admission;
+    //channels of the blocking engine writing a response, with the System.nanoTime by which it must be written
+    static final Map<Channel, Long> writeDeadlines = new ConcurrentHashMap<>();
+    //0 means the blocking engine, any other value the number of event loops of the non-blocking engine
+    static int eventLoops = 0;
+    //limits of the requests, larger ones are answered with 414, 431 or 413 and the connection is closed
+    static int maxRequestLine = 8 * 1024;
+    static int maxHeaderBytes = 32 * 1024;
+    static int maxBodyBytes = 1024 * 1024;
+    static volatile AccessLog accessLog;
+    static final Metrics metrics = new Metrics();
+    static volatile NioServer nioServer;
     public static void start(int serverPort) throws Exception {
         port = serverPort;
         start();
     }
     public static void start() throws Exception {
-        ServerSocket serverSocket = null;
+        router.compile();
+        if (eventLoops > 0) {
+            running = true;
+            nioServer = new NioServer(port, eventLoops);
+            nioServer.start();
+            return;
+        }
         try {
-            serverSocket = new ServerSocket(port);
+            //the sockets accepted through a channel can send files with FileChannel.transferTo
+            serverSocket = ServerSocketChannel.open().bind(new InetSocketAddress(port), backlog).socket();
         } catch (IOException e) {
-            System.err.println("Could not listen on port: 35000.");
-            System.exit(1);
+            throw new IOException("Could not listen on port: " + port + ".", e);
         }
-        Socket clientSocket = null;
-        Boolean running = true;
-        while (running) {
-            try {
-                System.out.println("Listo para recibir ...");
-                clientSocket = serverSocket.accept();
-            } catch (IOException e) {
-                System.err.println("Accept failed.");
-                System.exit(1);
-            }
-            BufferedReader in = new BufferedReader(
-                    new InputStreamReader(
-                            clientSocket.getInputStream()));
-            OutputStream outputStream = clientSocket.getOutputStream();
-            String inputLine, firstLine="";
-            boolean isFirstLine = true;
-            int contentLength = 0;
-            while ((inputLine = in.readLine()) != null) {
-                System.out.println("Received: " + inputLine);
-                if (isFirstLine) {
-                    isFirstLine = false;
-                    firstLine = inputLine;
+        running = true;
+        ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("http-watchdog").daemon().factory());
+        watchdog.scheduleWithFixedDelay(HttpServer::closeStalledWrites, 100, 100, TimeUnit.MILLISECONDS);
+        try (ExecutorService executor = createExecutor()) {
+            while (running) {
+                Socket clientSocket;
+                try {
+                    clientSocket = serverSocket.accept();
+                } catch (IOException e) {
+                    if (!running) break;
+                    acceptFailed(e);
+                    continue;
                 }
-                if (inputLine.toLowerCase().startsWith("content-length:")) {
-                    contentLength = Integer.parseInt(inputLine.split(":")[1].trim());
+                try {
+                    executor.execute(() -> handleConnection(clientSocket));
+                } catch (RejectedExecutionException e) {
+                    reject(clientSocket);
                 }
-                if (inputLine.isEmpty() || inputLine.trim().isEmpty()) {
-                    break;
+            }
+        } finally {
+            watchdog.shutdownNow();
+            serverSocket.close();
+        }
+    }
+    /**
+     * Reports a connection that could not be accepted and waits a moment, so a persistent failure
+     * such as running out of file descriptors does not spin the accepting thread. Shared by both engines.
+     * @param e error of the accept
+     */
+    static void acceptFailed(IOException e) {
+        System.err.println("Accept failed: " + e.getMessage());
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+    }
+    /**
+     * Answers a connection that found the queue of the thread pool full with the pre-encoded 503 and closes it.
+     * @param clientSocket socket of the rejected connection
+     */
+    private static void reject(Socket clientSocket) {
+        Admission gate = admission;
+        metrics.shed();
+        try (Socket socket = clientSocket) {
+            byte[] rejection = gate != null ? gate.rejectionBytes : Admission.OVERLOADED_BYTES;
+            socket.getOutputStream().write(rejection);
+            metrics.sent(rejection.length);
+        } catch (IOException ignored) {
+            //the client is gone already
+        }
+        logAccess(null, null, gate != null ? gate.rejection : Admission.OVERLOADED, System.nanoTime());
+    }
+    /**
+     * Closes the connections of the blocking engine that did not manage to write their response in time,
+     * which unblocks the thread writing to them. Run periodically by the watchdog of the server.
+     */
+    private static void closeStalledWrites() {
+        long now = System.nanoTime();
+        for (Map.Entry<Channel, Long> write : writeDeadlines.entrySet()) {
+            if (now - write.getValue() > 0 && writeDeadlines.remove(write.getKey(), write.getValue())) {
+                try {
+                    write.getKey().close();
+                } catch (IOException ignored) {
                 }
             }
-            String body = "";
-            if (contentLength > 0) {
-                char[] bodyChars = new char[contentLength];
-                in.read(bodyChars, 0, contentLength);
-                body = new String(bodyChars);
+        }
+    }
+    /**
+     * Stops accepting new connections, connections already accepted are allowed to finish.
+     * @throws IOException if an error occurs while closing the server socket
+     */
+    public static void stop() throws IOException {
+        running = false;
+        if (serverSocket != null) serverSocket.close();
+        if (nioServer != null) nioServer.stop();
+        AccessLog log = accessLog;
+        accessLog = null;
+        if (log != null) log.close();
+    }
+    /**
+     * Writes an access log with one line per request, through a background thread so the requests never wait for it.
+     * The log is closed, after writing the lines that are waiting, when the server stops.
+     * @param file file of the log, rotated as file.1, file.2 ... when it reaches its size limit
+     * @param level requests that are logged, OFF disables the log
+     * @param sampleRate fraction of the successful requests that are logged, from 0 to 1; errors are always logged
+     * @param maxFileBytes size at which the file is rotated
+     * @param maxFiles number of rotated files kept
+     * @throws IOException if the file cannot be opened
+     * @throws IllegalArgumentException if the rate is not between 0 and 1 or a size is not positive
+     */
+    public static void accessLog(Path file, AccessLog.Level level, double sampleRate, long maxFileBytes, int maxFiles) throws IOException, IllegalArgumentException {
+        AccessLog previous = accessLog;
+        accessLog = level == AccessLog.Level.OFF ? null : new AccessLog(file, level, sampleRate, maxFileBytes, maxFiles, 64 * 1024);
+        if (previous != null) previous.close();
+    }
+    /**
+     * Gets the access log.
+     * @return the access log, null if it is disabled
+     */
+    public static AccessLog getAccessLog() {
+        return accessLog;
+    }
+    /**
+     * Gets the metrics of the server, the same ones served on /metrics.
+     * @return metrics of the server
+     */
+    public static Metrics getMetrics() {
+        return metrics;
+    }
+    /**
+     * Records a request in the latency histogram of its route and in the access log, if it is enabled.
+     * @param method method of the request, null if it could not be parsed
+     * @param target target of the request, null if it could not be parsed
+     * @param response response of the request
+     * @param started System.nanoTime when the request was parsed
+     */
+    static void logAccess(String method, String target, HttpResponse response, long started) {
+        long latency = System.nanoTime() - started;
+        metrics.record(response.route != null ? response.route : "none", method, response.getStatusCode(), latency);
+        AccessLog log = accessLog;
+        if (log != null) log.log(method, target, response.getStatusCode(), response.getContentLength(), latency);
+    }
+    /**
+     * Handles each accepted connection on its own virtual thread (default).
+     */
+    public static void useVirtualThreads() {
+        poolSize = 0;
+        eventLoops = 0;
+    }
+    /**
+     * Handles the accepted connections on a fixed pool of platform threads, with up to 1024 connections waiting for a thread.
+     * @param size number of threads of the pool
+     * @throws IllegalArgumentException if the size is not positive
+     */
+    public static void threadPool(int size) throws IllegalArgumentException {
+        threadPool(size, 1024);
+    }
+    /**
+     * Handles the accepted connections on a fixed pool of platform threads. The connections that find
+     * every thread busy wait in a bounded queue, and the ones that find it full are answered with 503.
+     * @param size number of threads of the pool
+     * @param queueSize number of connections that can wait for a thread
+     * @throws IllegalArgumentException if the size or the queue size is not positive
+     */
+    public static void threadPool(int size, int queueSize) throws IllegalArgumentException {
+        if (size <= 0 || queueSize <= 0) throw new IllegalArgumentException("Thread pool: size and queue size must be positive");
+        poolSize = size;
+        poolQueue = queueSize;
+        eventLoops = 0;
+    }
+    /**
+     * Serves the connections with the non-blocking engine, a few event loops multiplex
+     * every connection so idle keep-alive connections do not hold a thread each.
+     * @param loops number of event loops
+     * @throws IllegalArgumentException if the number of loops is not positive
+     */
+    public static void useNio(int loops) throws IllegalArgumentException {
+        if (loops <= 0) throw new IllegalArgumentException("NIO: number of event loops must be positive");
+        eventLoops = loops;
+    }
+    /**
+     * Creates the executor that runs the connections based on the configured mode.
+     * @return executor of the connections
+     */
+    private static ExecutorService createExecutor() {
+        if (poolSize == 0) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("http-", 0).factory());
+        }
+        return new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(poolQueue), Thread.ofPlatform().name("http-", 0).factory());
+    }
+    /**
+     * Configures the persistent connections.
+     * @param idleTimeoutMillis time a connection can wait for the next request before it is closed
+     * @param maxRequests maximum number of requests served by a single connection
+     * @throws IllegalArgumentException if any of the values is not positive
+     */
+    public static void keepAlive(int idleTimeoutMillis, int maxRequests) throws IllegalArgumentException {
+        if (idleTimeoutMillis <= 0 || maxRequests <= 0) {
+            throw new IllegalArgumentException("Keep alive: timeout and max requests must be positive");
+        }
+        keepAliveTimeout = idleTimeoutMillis;
+        keepAliveMaxRequests = maxRequests;
+    }
+    /**
+     * Configures the timeouts of the connections, a client that takes longer is answered with 408
+     * while its request is incomplete and is disconnected otherwise.
+     * @param readHeaderMillis time to receive the head of a request, from its first byte
+     * @param readBodyMillis time to receive the body of a request, from the end of its head
+     * @param writeMillis time to write a response whose body is in memory or in a file; streamed bodies have no limit
+     * @param idleMillis time a connection can wait for the next request before it is closed
+     * @throws IllegalArgumentException if any of the values is not positive
+     */
+    public static void timeouts(int readHeaderMillis, int readBodyMillis, int writeMillis, int idleMillis) throws IllegalArgumentException {
+        if (readHeaderMillis <= 0 || readBodyMillis <= 0 || writeMillis <= 0 || idleMillis <= 0) {
+            throw new IllegalArgumentException("Timeouts: values must be positive");
+        }
+        readHeaderTimeout = readHeaderMillis;
+        readBodyTimeout = readBodyMillis;
+        writeTimeout = writeMillis;
+        keepAliveTimeout = idleMillis;
+    }
+    /**
+     * Limits the requests processed at the same time. A request that finds every slot taken waits for one
+     * in a bounded queue, and it is answered at once with a pre-encoded 503 and Retry-After when the queue
+     * is full or its wait expires, so the admitted requests keep their latency when the server is overloaded.
+     * @param maxInFlight requests processed at the same time, 0 to admit every request
+     * @param maxQueued requests that can wait for a slot
+     * @param queueTimeoutMillis time a request waits for a slot
+     * @param retryAfterSeconds value of the Retry-After header of the rejected requests
+     * @throws IllegalArgumentException if a value is negative or the Retry-After is not positive
+     */
+    public static void admission(int maxInFlight, int maxQueued, int queueTimeoutMillis, int retryAfterSeconds) throws IllegalArgumentException {
+        if (maxInFlight < 0 || maxQueued < 0 || queueTimeoutMillis < 0 || retryAfterSeconds <= 0) {
+            throw new IllegalArgumentException("Admission: values cannot be negative and Retry-After must be positive");
+        }
+        admission = maxInFlight == 0 ? null : new Admission(maxInFlight, maxQueued, queueTimeoutMillis, retryAfterSeconds);
+    }
+    /**
+     * Configures the connections that the system keeps waiting to be accepted, it applies to the next start.
+     * @param connections size of the accept backlog
+     * @throws IllegalArgumentException if the size is not positive
+     */
+    public static void backlog(int connections) throws IllegalArgumentException {
+        if (connections <= 0) throw new IllegalArgumentException("Backlog: size must be positive");
+        backlog = connections;
+    }
+    /**
+     * Configures the size limits of the requests.
+     * @param requestLineBytes maximum bytes of the request line (method, target and version)
+     * @param headerBytes maximum bytes of all the header fields of a request
+     * @param bodyBytes maximum bytes of the body of a request
+     * @throws IllegalArgumentException if any of the values is not positive
+     */
+    public static void requestLimits(int requestLineBytes, int headerBytes, int bodyBytes) throws IllegalArgumentException {
+        if (requestLineBytes <= 0 || headerBytes <= 0 || bodyBytes <= 0) {
+            throw new IllegalArgumentException("Request limits: sizes must be positive");
+        }
+        maxRequestLine = requestLineBytes;
+        maxHeaderBytes = headerBytes;
+        maxBodyBytes = bodyBytes;
+    }
+    /**
+     * Reads the requests of an accepted connection and writes their responses in the same order.
+     * The connection stays open while the client allows it, it is closed after the idle timeout
+     * or once the maximum number of requests has been served. A request whose head or body is not
+     * received in time is answered with 408, and one that is not admitted with 503.
+     * @param clientSocket socket of the accepted connection
+     */
+    private static void handleConnection(Socket clientSocket) {
+        byte[] buffer = RequestParser.acquire();
+        metrics.connectionOpened();
+        try (Socket socket = clientSocket;
+             InputStream in = socket.getInputStream();
+             OutputStream outputStream = new BufferedOutputStream(new CountingOutputStream(socket.getOutputStream()))) {
+            RequestParser parser = new RequestParser();
+            Router.Params params = new Router.Params();
+            int start = 0, end = 0;
+            int served = 0;
+            boolean keepAlive = true;
+            while (keepAlive) {
+                int next;
+                //System.nanoTime by which the head and the body of the request must be received, 0 until they are started
+                long headDeadline = 0, bodyDeadline = 0;
+                try {
+                    while ((next = parse(parser, buffer, start, end)) < 0) {
+                        //keep the incomplete request at the beginning of the buffer, growing it if it does not fit
+                        if (start > 0) {
+                            System.arraycopy(buffer, start, buffer, 0, end - start);
+                            end -= start;
+                            start = 0;
+                        }
+                        int needed = parser.needed(start, end);
+                        if (end == buffer.length || needed > buffer.length) {
+                            buffer = Arrays.copyOf(buffer, Math.max(needed, buffer.length * 2));
+                        }
+                        int read;
+                        try {
+                            long now = System.nanoTime();
+                            if (end == start) {
+                                socket.setSoTimeout(keepAliveTimeout);
+                            } else if (!parser.isHeadComplete()) {
+                                if (headDeadline == 0) headDeadline = now + TimeUnit.MILLISECONDS.toNanos(readHeaderTimeout);
+                                socket.setSoTimeout(remainingMillis(headDeadline, now));
+                            } else {
+                                if (bodyDeadline == 0) bodyDeadline = now + TimeUnit.MILLISECONDS.toNanos(readBodyTimeout);
+                                socket.setSoTimeout(remainingMillis(bodyDeadline, now));
+                            }
+                            read = in.read(buffer, end, buffer.length - end);
+                        } catch (SocketTimeoutException e) {
+                            //waiting for a new request is only idle, a request left halfway is answered
+                            if (end == start) throw e;
+                            throw new RequestException(408, "Request not received in time");
+                        }
+                        if (read < 0) return;
+                        metrics.received(read);
+                        end += read;
+                    }
+                } catch (RequestException e) {
+                    HttpResponse error = errorResponse(e);
+                    writeResponse(error, outputStream, socket.getChannel());
+                    logAccess(null, null, error, System.nanoTime());
+                    //discard the rest of the request for a moment, so closing with unread bytes does not reset
+                    //the connection before the client reads the error
+                    socket.shutdownOutput();
+                    long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+                    int read;
+                    for (long drained = 0; drained < maxBodyBytes; drained += read) {
+                        socket.setSoTimeout(remainingMillis(drainDeadline, System.nanoTime()));
+                        if ((read = in.read(buffer)) <= 0) break;
+                    }
+                    return;
+                }
+                long started = System.nanoTime();
+                start = next;
+                served++;
+                Admission gate = admission;
+                if (gate != null && !gate.acquire()) {
+                    outputStream.write(gate.rejectionBytes);
+                    outputStream.flush();
+                    logAccess(parser.method, parser.target, gate.rejection, started);
+                    return;
+                }
+                try {
+                    keepAlive = running && served < keepAliveMaxRequests && isKeepAlive(parser.http11, parser.headers.get("connection"));
+                    keepAlive = manageRequest(parser.method, parser.target, parser.http11, parser.headers, parser.body, outputStream, socket.getChannel(), keepAlive, started, params);
+                } finally {
+                    if (gate != null) gate.release();
+                }
             }
-            if(!firstLine.isEmpty()) manageRequest(firstLine,body,outputStream);
-            outputStream.close();
-            in.close();
-            clientSocket.close();
+        } catch (SocketTimeoutException e) {
+            //the client did not send another request before the idle timeout
+        } catch (IOException e) {
+            System.err.println("Connection failed: " + e.getMessage());
+        } finally {
+            RequestParser.release(buffer);
+            metrics.connectionClosed();
+        }
+    }
+    /**
+     * Gets the time left until a deadline, as a socket timeout.
+     * @param deadline System.nanoTime of the deadline
+     * @param now current System.nanoTime
+     * @return milliseconds left
+     * @throws SocketTimeoutException if the deadline has passed
+     */
+    private static int remainingMillis(long deadline, long now) throws SocketTimeoutException {
+        long left = TimeUnit.NANOSECONDS.toMillis(deadline - now);
+        if (left <= 0) throw new SocketTimeoutException("Deadline passed");
+        return (int) Math.min(left, Integer.MAX_VALUE);
+    }
+    /**
+     * Parses the bytes received of a request, timing the parser in the metrics.
+     * It is shared by the blocking and the non-blocking engines.
+     * @param parser parser of the connection
+     * @param data buffer with the bytes received
+     * @param from position of the first byte of the request
+     * @param to position after the last byte received
+     * @return position after the request, -1 if more bytes are needed
+     * @throws RequestException if the request is malformed or exceeds a limit
+     */
+    static int parse(RequestParser parser, byte[] data, int from, int to) throws RequestException {
+        long parseStarted = System.nanoTime();
+        try {
+            return parser.parse(data, from, to);
+        } finally {
+            metrics.record(Metrics.Stage.PARSE, System.nanoTime() - parseStarted);
         }
-        serverSocket.close();
+    }
+    /**
+     * Builds the response to a request that could not be parsed.
+     * @param e problem found in the request, with the status of the response
+     * @return complete response that closes the connection
+     */
+    static HttpResponse errorResponse(RequestException e) {
+        HttpResponse response = new HttpResponse(e.getStatus(), e.getMessage());
+        completeResponse(response, Map.of(), false);
+        return response;
+    }
+    /**
+     * Decides if the connection must remain open after the response.
+     * HTTP/1.1 is persistent unless the client sends "Connection: close",
+     * HTTP/1.0 is only persistent when the client sends "Connection: keep-alive".
+     * @param http11 true if the request is HTTP/1.1
+     * @param connection value of the connection header, null if absent
+     * @return true if the connection can be reused
+     */
+    static boolean isKeepAlive(boolean http11, String connection) {
+        if (connection != null) connection = connection.toLowerCase();
+        if (http11) {
+            return connection == null || !connection.contains("close");
+        }
+        return connection != null && connection.contains("keep-alive");
     }
     /**
      * Manages an HTTP request by processing the method, resource, and body,
      * and writing the corresponding response.
-     * @param inputLine the first line of the HTTP request (contains method and resource)
-     * @param body      the body of the request, if present
+     * @param method    the method of the request
+     * @param target    the target of the request line, path and query
+     * @param http11    true if the request is HTTP/1.1
+     * @param headers   the headers of the request, with names in lower case
+     * @param body      the body of the request, empty if absent
      * @param out       the output stream used to send the response back to the client
+     * @param channel   the channel of the client socket, used to send files without copying them to the heap,
+     *                  it is closed if the response is not written within the write timeout
+     * @param keepAlive true if the connection remains open after this response
+     * @param started System.nanoTime when the request was parsed, for the access log
+     * @param params bounds of the path parameters, reused by the requests of the connection
+     * @return true if the connection can be reused for another request
      * @throws IOException if an error occurs while writing to the output stream
      */
-    private static void manageRequest(String inputLine, String body,OutputStream out) throws IOException {
+    static boolean manageRequest(String method, String target, boolean http11, Map<String, String> headers, byte[] body, OutputStream out, WritableByteChannel channel, boolean keepAlive, long started, Router.Params params) throws IOException {
+        HttpResponse response = buildResponse(method, target, headers, body, params);
+        //HTTP/1.1 clients receive the bodies of unknown length in chunks, older ones until the connection closes
+        boolean chunked = http11;
+        boolean reusable;
+        if(response.getBodyWriter() != null) {
+            reusable = writeStream(response, headers, out, keepAlive, chunked);
+        } else {
+            //a client that does not read its response is disconnected by the watchdog
+            if(channel != null) writeDeadlines.put(channel, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(writeTimeout));
+            try {
+                if(response.getEntity() != null) {
+                    reusable = writeEntity(response, headers, out, channel, keepAlive, chunked);
+                } else {
+                    completeResponse(response, headers, keepAlive);
+                    writeResponse(response, out, channel);
+                    reusable = keepAlive;
+                }
+            } finally {
+                if(channel != null) writeDeadlines.remove(channel);
+            }
+        }
+        logAccess(method, target, response, started);
+        return reusable;
+    }
+    /**
+     * Writes a complete response, its body may be in memory or in a file.
+     * When the socket has a channel the head and the body in memory leave in a single gathering write,
+     * without being copied to the buffer of the stream first.
+     * @param response response to write
+     * @param out the output stream of the client
+     * @param channel the channel of the client socket, null if it has none
+     * @throws IOException if an error occurs while writing to the output stream
+     */
+    private static void writeResponse(HttpResponse response, OutputStream out, WritableByteChannel channel) throws IOException {
+        long writeStarted = System.nanoTime();
+        ByteBuffer head = ResponseHead.encode(response);
+        try {
+            byte[] body = response.getBody();
+            if(channel instanceof GatheringByteChannel gathering) {
+                //what the stream still holds goes first
+                out.flush();
+                ByteBuffer[] buffers = body == null ? new ByteBuffer[]{head} : new ByteBuffer[]{head, ByteBuffer.wrap(body)};
+                long length = head.remaining() + (body == null ? 0 : body.length);
+                long written = 0;
+                while (written < length) written += gathering.write(buffers);
+                metrics.sent(written);
+            } else {
+                out.write(head.array(), head.position(), head.remaining());
+                //if response have body include it
+                if(body != null) out.write(body);
+                out.flush();
+            }
+        } finally {
+            ResponseHead.release(head);
+        }
+        if(response.getFile() != null) {
+            if(channel != null) {
+                transferFile(response, channel);
+                metrics.sent(response.getContentLength());
+            } else {
+                //the stream counts the bytes itself
+                transferFile(response, Channels.newChannel(out));
+            }
+        }
+        metrics.record(Metrics.Stage.WRITE, System.nanoTime() - writeStarted);
+    }
+    /**
+     * Writes a response whose body is a JSON object, serializing it straight into the connection.
+     * A body that fits in the buffer of the writer is sent with its Content-Length as usual,
+     * a bigger one is sent in chunks while it is being serialized.
+     * If the serialization fails before sending anything the client receives a 500 response instead,
+     * if it fails in the middle of the body the connection is closed so the client sees it incomplete.
+     * @param response response with a JSON object as body
+     * @param headers the headers of the request
+     * @param out the output stream of the client
+     * @param channel the channel of the client socket, null if it has none
+     * @param keepAlive true if the connection could remain open after this response
+     * @param chunked true if the client accepts chunked bodies
+     * @return true if the connection can be reused for another request
+     * @throws IOException if an error occurs while writing to the output stream
+     */
+    private static boolean writeEntity(HttpResponse response, Map<String, String> headers, OutputStream out, WritableByteChannel channel, boolean keepAlive, boolean chunked) throws IOException {
+        ResponseBody stream = new ResponseBody(response, headers, out, keepAlive, chunked);
+        try (JsonWriter writer = new JsonWriter(stream)) {
+            long serializeStarted = System.nanoTime();
+            try {
+                response.writeEntity(writer);
+            } catch (RuntimeException e) {
+                //the access log records the failure instead of the status of the handler
+                response.status(500);
+                if(stream.isCommitted()) return false;
+                HttpResponse error = new HttpResponse(500, e.getMessage());
+                completeResponse(error, headers, keepAlive);
+                writeResponse(error, out, null);
+                return keepAlive;
+            }
+            //a big body was partly written while it was serialized, both are timed together
+            metrics.record(Metrics.Stage.SERIALIZE, System.nanoTime() - serializeStarted);
+            if(!writer.isFlushed()){
+                response.body(writer.toByteArray());
+                completeResponse(response, headers, keepAlive);
+                writeResponse(response, out, channel);
+                return keepAlive;
+            }
+            writer.flush();
+        }
+        stream.finish();
+        return stream.isReusable();
+    }
+    /**
+     * Writes a response whose body is produced by its BodyWriter while it is sent.
+     * If the writer fails before sending anything the client receives a 500 response instead,
+     * if it fails in the middle of the body the connection is closed so the client sees it incomplete.
+     * It is shared by the blocking and the non-blocking engines.
+     * @param response response with a streamed body
+     * @param headers the headers of the request
+     * @param out the output stream of the client
+     * @param keepAlive true if the connection could remain open after this response
+     * @param chunked true if the client accepts chunked bodies
+     * @return true if the connection can be reused for another request
+     * @throws IOException if an error occurs while writing to the output stream
+     */
+    static boolean writeStream(HttpResponse response, Map<String, String> headers, OutputStream out, boolean keepAlive, boolean chunked) throws IOException {
+        ResponseBody stream = new ResponseBody(response, headers, out, keepAlive, chunked);
+        long writeStarted = System.nanoTime();
+        try {
+            response.getBodyWriter().writeBody(stream);
+        } catch (IOException | RuntimeException e) {
+            if(stream.isCommitted()) return false;
+            HttpResponse error = new HttpResponse(500, e.getMessage());
+            completeResponse(error, headers, keepAlive);
+            writeResponse(error, out, null);
+            return keepAlive;
+        }
+        stream.finish();
+        //the body is produced while it is sent, so its writer is timed as part of the write
+        metrics.record(Metrics.Stage.WRITE, System.nanoTime() - writeStarted);
+        return stream.isReusable();
+    }
+    /**
+     * Sends the file of a response with FileChannel.transferTo, which uses sendfile
+     * when the target is a socket, so the file is never copied to the heap.
+     * @param response response whose body is a file
+     * @param target channel of the client
+     * @throws IOException if an error occurs while reading the file or writing to the channel
+     */
+    static void transferFile(HttpResponse response, WritableByteChannel target) throws IOException {
+        try (FileChannel file = FileChannel.open(response.getFile(), StandardOpenOption.READ)) {
+            long position = 0;
+            long length = response.getContentLength();
+            while (position < length) {
+                long sent = file.transferTo(position, length - position, target);
+                if (sent <= 0 && position >= file.size()) throw new EOFException("File truncated: " + response.getFile());
+                position += sent;
+            }
+        }
+    }
+    /**
+     * Processes the method, resource and body of a request and completes the headers of its response.
+     * It is shared by the blocking and the non-blocking engines.
+     * @param method    the method of the request
+     * @param target    the target of the request line, path and query
+     * @param headers   the headers of the request, with names in lower case
+     * @param body      the body of the request, empty if absent
+     * @param params    bounds of the path parameters, reused by the requests of the connection
+     * @return Response of the request, it is completed by completeResponse before it is written
+     */
+    static HttpResponse buildResponse(String method, String target, Map<String, String> headers, byte[] body, Router.Params params) {
         HttpResponse response = new HttpResponse();
         try {
-            String[] dividedUri = inputLine.split(" ");
-            URI requestUri = new URI(dividedUri[1]);
+            URI requestUri = new URI(target);
             String path = requestUri.getPath();
-            String method = dividedUri[0];
-            if(method.equals("GET") && path.startsWith("/app")) {
-                response = processRequest(requestUri);
-            }else if(method.equals("POST") && path.startsWith("/app")){
-                    String taskName = "";
-                    String taskDescription = "";
-                    String[] values = body.split(",");
-                    for(String value : values){
-                        String[] pair = value.split(":",2);
-                        String key = pair[0].replace("\"","").replace("{","").replace("}","").replace(" ","").trim();
-                        String val = pair[1].replace("\"","").replace("{","").replace("}","").trim();
-                        if(key.equals("name")) taskName = val;
-                        if(key.equals("description")) taskDescription = val;
-                    }
-                    if(!taskName.isEmpty() && !taskDescription.isEmpty()) response = saveTask(taskName, taskDescription);
-                    else response = new HttpResponse(400,"Missing values, Task Name and Task Description are required");
-
-            }else if(method.equals("GET") && (path.equals("/") || path.endsWith("html") || path.endsWith("js") || path.endsWith("css")
-                    || path.endsWith("png") || path.endsWith("jpg") || path.endsWith("jpeg"))){
-                response = getResources(path);
+            if(path.equals("/app") || path.startsWith("/app/")) {
+                response = processRequest(method, requestUri, headers, body, params);
+            }else if(!method.equals("GET")){
+                response = new HttpResponse(405,"Method "+method+" "+path+" not supported").header("Allow","GET");
+            }else if(path.equals("/metrics")){
+                response = new HttpResponse(200, metrics.render()).contentType("text/plain; version=0.0.4");
+                response.route = "metrics";
+            }else if(path.equals("/") || staticExtensions.contains(extension(path))){
+                long handlerStarted = System.nanoTime();
+                response = getResources(path, headers);
+                metrics.record(Metrics.Stage.HANDLER, System.nanoTime() - handlerStarted);
+                response.route = "static";
             }else{
-                response = new HttpResponse(405,"Method "+method+" "+path+" not supported");
+                response = new HttpResponse(404,"Resource "+path+" not found");
             }
-        }catch (FileNotFoundException e){
-            response = new HttpResponse(404,e.getMessage());
         }catch (Exception e) {
-            response = new HttpResponse(500,e.getMessage());
-        }finally {
-            //if the response does not have content-type assign automatically text/plain
-            response.getHeaders().putIfAbsent("Content-Type","text/plain");
-            byte[] bodyResponse = response.getBody();
-            //if response does not have body set status No Content
-            if(bodyResponse == null && response.getStatusCode() == 200) response.setStatusCode(204);
-            //Build full response
-            StringBuilder sb = new StringBuilder()
-                    .append("HTTP/1.1 ").append(response.getStatusCode()).append(" ").append(response.getStatusMessage()).append("\r\n");
-            response.getHeaders().forEach((k,v) -> sb.append(k).append(": ").append(v).append("\r\n"));
-            sb.append("\r\n");
-            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
-            //if response have body include it
-            if(bodyResponse != null) out.write(response.getBody());
-            out.flush();
+            response = failure(e);
+        }
+        return response;
+    }
+    /**
+     * Builds the response of a request whose processing failed.
+     * @param e exception thrown while processing the request
+     * @return response with 400 or 413 for invalid JSON, 404 for missing files and 500 otherwise
+     */
+    private static HttpResponse failure(Exception e) {
+        if(e instanceof JsonException json) return new HttpResponse(json.isLimitExceeded() ? 413 : 400,e.getMessage());
+        if(e instanceof FileNotFoundException) return new HttpResponse(404,e.getMessage());
+        return new HttpResponse(500,e.getMessage());
+    }
+    /**
+     * Completes the headers of a response whose body is already in memory or in a file:
+     * default content-type, compression, length and connection.
+     * @param response  the response to complete
+     * @param headers   the headers of the request
+     * @param keepAlive true if the connection remains open after this response
+     */
+    static void completeResponse(HttpResponse response, Map<String, String> headers, boolean keepAlive) {
+        //if the response does not have content-type assign automatically text/plain
+        if(response.getStatusCode() != 304) response.getHeaders().putIfAbsent("Content-Type","text/plain");
+        Compression.apply(response, headers);
+        //if response does not have body set status No Content
+        if(!response.hasBody() && response.getStatusCode() == 200) response.setStatusCode(204);
+        //every response is delimited by its length so the connection can be reused
+        if(response.getStatusCode() != 204 && response.getStatusCode() != 304) {
+            response.getHeaders().put("Content-Length", String.valueOf(response.getContentLength()));
         }
+        response.getHeaders().put("Connection", keepAlive ? "keep-alive" : "close");
     }
     /**
     *Registers a new GET endpoint.
-    * @param  route the endpoint path to be handled
+    * @param  route the endpoint path to be handled, relative to /app, with {name} for path parameters
      * @param service service the lambda function to execute when the route is requested
      */
     public static void get(String route, Service service){
-        services.put(route,service);
+        router.add("GET", route, service);
+    }
+    /**
+    *Registers a new POST endpoint.
+    * @param  route the endpoint path to be handled, relative to /app, with {name} for path parameters
+     * @param service service the lambda function to execute when the route is requested
+     */
+    public static void post(String route, Service service){
+        router.add("POST", route, service);
+    }
+    /**
+    *Registers a new PUT endpoint.
+    * @param  route the endpoint path to be handled, relative to /app, with {name} for path parameters
+     * @param service service the lambda function to execute when the route is requested
+     */
+    public static void put(String route, Service service){
+        router.add("PUT", route, service);
+    }
+    /**
+    *Registers a new DELETE endpoint.
+    * @param  route the endpoint path to be handled, relative to /app, with {name} for path parameters
+     * @param service service the lambda function to execute when the route is requested
+     */
+    public static void delete(String route, Service service){
+        router.add("DELETE", route, service);
     }
     /**
      *Configures the directory for serving static files.
@@ -162,31 +780,80 @@ public class HttpServer {
         } else {
             Files.createDirectories(configured);
         }
+        if (staticCache != null) staticCache.close();
+        staticCache = new StaticFileCache(configured, staticCacheBytes, zeroCopyThreshold, HttpServer::getHeader);
         dir = root + path;
     }
+    /**
+     * Configures the memory budget of the static files cache, it applies to the next call of staticfiles.
+     * @param maxBytes maximum number of bytes of static files kept in memory
+     * @throws IllegalArgumentException if the budget is negative
+     */
+    public static void staticCache(long maxBytes) throws IllegalArgumentException {
+        if (maxBytes < 0) throw new IllegalArgumentException("Static cache: budget cannot be negative");
+        staticCacheBytes = maxBytes;
+    }
+    /**
+     * Configures the size above which static files are sent straight from disk with zero-copy transfers
+     * instead of being loaded in memory, it applies to the next call of staticfiles.
+     * @param bytes size threshold in bytes
+     * @throws IllegalArgumentException if the threshold is negative
+     */
+    public static void zeroCopyThreshold(long bytes) throws IllegalArgumentException {
+        if (bytes < 0) throw new IllegalArgumentException("Zero copy: threshold cannot be negative");
+        zeroCopyThreshold = bytes;
+    }
+    /**
+     * Gets the cache of the static files, with its hit, miss and eviction counters.
+     * @return cache of the static files, null if staticfiles was not configured
+     */
+    public static StaticFileCache getStaticCache() {
+        return staticCache;
+    }
 
     /**
-     * Processes an incoming GET request by resolving the target service and executing it.
+     * Processes an incoming request under /app by resolving the route of its path and executing its service.
+     * @param method HTTP method of the request
      * @param requestURI requestURI the URI of the requested resource (must start with "/app")
-     * @return Response
+     * @param headers headers of the request, with names in lower case
+     * @param body body of the request
+     * @param params bounds of the path parameters, reused by the requests of the connection
+     * @return Response, 404 if no route has the path and 405 with the allowed methods if the route does not accept the method
      */
-    private static HttpResponse processRequest(URI requestURI) {
-        String serviceRoute = requestURI.getPath().substring(4);
-        Service service = services.get(serviceRoute);
-        HttpRequest req = new HttpRequest(requestURI);
-        HttpResponse res = new HttpResponse();
-        if(service == null) return res.status(405).body("Method GET "+requestURI+" not supported");
-        return service.executeService(req, res);
+    private static HttpResponse processRequest(String method, URI requestURI, Map<String, String> headers, byte[] body, Router.Params params) {
+        String path = requestURI.getPath();
+        long routeStarted = System.nanoTime();
+        Router.Route route = router.find(path, 4, params);
+        long handlerStarted = System.nanoTime();
+        metrics.record(Metrics.Stage.ROUTE, handlerStarted - routeStarted);
+        if(route == null) return new HttpResponse(404,"Route "+path+" not found");
+        Service service = route.service(method);
+        HttpResponse response;
+        if(service == null) {
+            response = new HttpResponse(405,"Method "+method+" "+path+" not supported").header("Allow",route.allow());
+        } else {
+            HttpRequest req = new HttpRequest(requestURI, method, headers, body, route.paramNames(method), params.bounds);
+            try {
+                response = service.executeService(req, new HttpResponse());
+            } catch (RuntimeException e) {
+                //handled here so the failure is still counted in the histogram of the route
+                response = failure(e);
+            }
+            metrics.record(Metrics.Stage.HANDLER, System.nanoTime() - handlerStarted);
+        }
+        response.route = route.pattern();
+        return response;
     }
 
     /**
      * Manage disk files.
      *
      * @param path resource of the request
+     * @param headers headers of the request, used for the conditional requests
      * @throws IOException if an error occurs while writing to the output stream
      * @return Response
      */
-    private static HttpResponse getResources(String path) throws IOException {
+    private static HttpResponse getResources(String path, Map<String, String> headers) throws IOException {
         String fullPath = dir;
         if(path.equals("/")){
             fullPath += "/" + "pages/index.html";
@@ -196,34 +863,14 @@ public class HttpServer {
         }else {
             fullPath += path;
         }
-        if(fullPath.endsWith("html") || fullPath.endsWith("css") || fullPath.endsWith("js")){
-            return sendTextFile(fullPath);
-        }
-        return sendImageFile(fullPath);
-    }
-    /**
-     * Read text files (html, css and javascript).
-     *
-     * @param filePath full path of the file
-     * @throws IOException if an error occurs while reading the file
-     * @return File content
-     */
-    private static String readFile(String filePath) throws IOException {
-        StringBuilder content = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                content.append(line).append("\n");
-            }
-        }
-        return content.toString();
+        return sendFile(fullPath, headers);
     }
     /**
      * Gets the header based on the file extension.
      * @param path full path of the file
      * @return content-type header
      */
-    private static String getHeader(String path){
+    static String getHeader(String path){
         if (path.endsWith(".html") || path.endsWith(".htm")) return "text/html";
         if (path.endsWith(".css"))  return "text/css";
         if (path.endsWith(".js"))   return "application/javascript";
@@ -232,43 +879,114 @@ public class HttpServer {
         return "application/octet-stream";
     }
     /**
-     * Read and send the file text (html, css or javascript)
+     * Sends a static file (html, css, javascript or images) from the cache,
+     * it is only read from disk the first time or after it changes.
+     * Files above the zero-copy threshold are not kept in memory, they are streamed from disk.
+     * Every file carries its validators (ETag and Last-Modified), when the client already has
+     * the current version the response is a 304 Not Modified without body.
      * @param fullPath full path of the file
-     * @throws IOException if an error occurs while writing to the output stream
-     * @return Response with the text file
+     * @param headers headers of the request
+     * @throws IOException if an error occurs while reading the file
+     * @return Response with the file
      */
-    private static HttpResponse sendTextFile(String fullPath)throws IOException{
-        byte[] output = readFile(fullPath).getBytes(StandardCharsets.UTF_8);
-        return new HttpResponse(200,output).contentType(getHeader(fullPath));
+    private static HttpResponse sendFile(String fullPath, Map<String, String> headers)throws IOException {
+        StaticFileCache.Entry file = staticCache.get(fullPath);
+        //the gzip version is compressed once when the file is loaded, never per request
+        boolean gzip = file.gzip() != null && Compression.GZIP.equals(Compression.negotiate(headers.get("accept-encoding")));
+        StaticFileCache.Representation content = gzip ? file.gzip() : file.identity();
+        HttpResponse response;
+        if(isNotModified(file, content, headers)){
+            response = new HttpResponse().status(304);
+        }else if(content.body() == null){
+            response = new HttpResponse().file(content.file(), content.length()).contentType(file.contentType());
+        }else {
+            response = new HttpResponse(200, content.body()).contentType(file.contentType());
+        }
+        if(gzip) response.header("Content-Encoding", Compression.GZIP);
+        if(file.gzip() != null) response.header("Vary", "Accept-Encoding");
+        response.header("ETag", content.etag()).header("Last-Modified", file.lastModified());
+        String cacheControl = cacheControls.get(extension(fullPath));
+        if(cacheControl != null) response.header("Cache-Control", cacheControl);
+        return response;
     }
     /**
-     * Read and send images (png, jpg or jpeg)
-     * @param fullPath full path of the file
-     * @throws IOException if an error occurs while reading the file image
-     * @return Response with the image
+     * Evaluates the conditional headers of a request against the current version of a file.
+     * If-None-Match takes precedence, If-Modified-Since is only used when it is absent.
+     * @param file cached file
+     * @param content version of the file that would be sent
+     * @param headers headers of the request
+     * @return true if the client already has the current version of the file
      */
-    private static HttpResponse sendImageFile(String fullPath)throws IOException {
-        Path filePath = Paths.get(fullPath);
-        if (!Files.exists(filePath)) {
-            return new HttpResponse(404,"Image not found");
+    private static boolean isNotModified(StaticFileCache.Entry file, StaticFileCache.Representation content, Map<String, String> headers) {
+        String ifNoneMatch = headers.get("if-none-match");
+        if(ifNoneMatch != null){
+            for(String tag : ifNoneMatch.split(",")){
+                tag = tag.trim();
+                if(tag.startsWith("W/")) tag = tag.substring(2);
+                if(tag.equals("*") || tag.equals(content.etag())) return true;
+            }
+            return false;
+        }
+        String ifModifiedSince = headers.get("if-modified-since");
+        if(ifModifiedSince != null){
+            try {
+                long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+                return file.lastModifiedSeconds() <= since;
+            } catch (DateTimeParseException e) {
+                return false;
+            }
         }
-        byte[] fileContent = Files.readAllBytes(filePath);
-        return new HttpResponse(200,fileContent)
-                .contentType(getHeader(fullPath))
-                .header("Content-Length",String.valueOf(fileContent.length));
+        return false;
     }
     /**
-     * Saves task in memory
-     * Since POST endpoints are not yet implemented using lambdas
-     * this method handles the task creation directly.
-     *  It uses the singleton to add the task
-     * @param name name of the task
-     * @param description description of the task
-     * @return Response with the created task
+     * Configures the Cache-Control header sent with the static files of an extension.
+     * @param extension extension of the files, without the dot
+     * @param maxAgeSeconds seconds the browser can use the file without validating it, 0 to always validate
+     * @throws IllegalArgumentException if the max age is negative
      */
-    private static HttpResponse saveTask(String name, String description){
-        Task newTask = getTaskManager().addTask(name,description);
-        return new HttpResponse(200,newTask).contentType("application/json");
+    public static void cacheControl(String extension, int maxAgeSeconds) throws IllegalArgumentException {
+        if (maxAgeSeconds < 0) throw new IllegalArgumentException("Cache control: max age cannot be negative");
+        cacheControls.put(extension, maxAgeSeconds == 0 ? "no-cache" : "public, max-age=" + maxAgeSeconds);
     }
+    /**
+     * Configures the compression of the responses, gzip or deflate is used when the client accepts it.
+     * It applies to the static files loaded after the call.
+     * @param minBytes bodies smaller than this are sent uncompressed
+     * @param mimeTypes content-types that are compressed, none to disable the compression
+     * @throws IllegalArgumentException if the minimum size is negative
+     */
+    public static void compression(int minBytes, String... mimeTypes) throws IllegalArgumentException {
+        if (minBytes < 0) throw new IllegalArgumentException("Compression: minimum size cannot be negative");
+        Compression.minSize = minBytes;
+        Compression.mimeTypes = Set.of(mimeTypes);
+    }
+    /**
+     * Gets the extension of a file.
+     * @param path path of the file
+     * @return extension without the dot, empty if it has none
+     */
+    private static String extension(String path) {
+        int dot = path.lastIndexOf('.');
+        return dot < 0 || dot < path.lastIndexOf('/') ? "" : path.substring(dot + 1);
+    }
+    /**
+     * Stream of a client socket that counts the bytes sent in the metrics.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            metrics.sent(1);
+        }
 
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            metrics.sent(len);
+        }
+    }
 }
@@ -0,0 +1,227 @@
+package edu.eci.arep.httpserver;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the server, exported in the Prometheus text format on /metrics.
+ * Latencies are kept in histograms with one bucket per power of two microseconds, so recording one is a
+ * leading-zeros count and two increments of striped counters ({@link LongAdder}), without locks or allocation.
+ * There is a histogram per stage of the requests, and one per route, method and status of the responses.
+ */
+public class Metrics {
+    /**
+     * Stages of a request, each one with its own latency histogram.
+     */
+    public enum Stage {
+        /** Parsing of the bytes received. */
+        PARSE,
+        /** Lookup of the route of the path. */
+        ROUTE,
+        /** Execution of the service, or lookup of the static file. */
+        HANDLER,
+        /** Serialization of the JSON body. */
+        SERIALIZE,
+        /** Writing of the response to the connection. */
+        WRITE
+    }
+
+    //upper bounds of the buckets are 1us, 2us, 4us ... 2^(BUCKETS - 2) us, the last one has no bound
+    private static final int BUCKETS = 26;
+    private static final String[] METHODS = {"GET", "POST", "PUT", "DELETE", "OTHER"};
+    private static final int MIN_STATUS = 100;
+    private static final int MAX_STATUS = 599;
+
+    /**
+     * Latency histogram, its buckets are not cumulative until they are exported.
+     */
+    static final class Histogram {
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+        private final LongAdder sumNanos = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < BUCKETS; i++) buckets[i] = new LongAdder();
+        }
+
+        void record(long nanos) {
+            long micros = nanos / 1000;
+            int bucket = micros <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(micros - 1);
+            buckets[Math.min(bucket, BUCKETS - 1)].increment();
+            sumNanos.add(nanos);
+        }
+
+        long count() {
+            long count = 0;
+            for (LongAdder bucket : buckets) count += bucket.sum();
+            return count;
+        }
+    }
+
+    /**
+     * Histograms of a route, one per method and status, created the first time they are needed.
+     */
+    private static final class RouteHistograms {
+        final AtomicReferenceArray<Histogram> histograms = new AtomicReferenceArray<>(METHODS.length * (MAX_STATUS - MIN_STATUS + 1));
+
+        Histogram get(int method, int status) {
+            int index = method * (MAX_STATUS - MIN_STATUS + 1) + status - MIN_STATUS;
+            Histogram histogram = histograms.get(index);
+            if (histogram == null) {
+                histograms.compareAndSet(index, null, new Histogram());
+                histogram = histograms.get(index);
+            }
+            return histogram;
+        }
+    }
+
+    private final Histogram[] stages = new Histogram[Stage.values().length];
+    private final Map<String, RouteHistograms> routes = new ConcurrentHashMap<>();
+    private final LongAdder activeConnections = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder shedRequests = new LongAdder();
+
+    Metrics() {
+        for (int i = 0; i < stages.length; i++) stages[i] = new Histogram();
+    }
+
+    /**
+     * Records the duration of a stage of a request.
+     * @param stage the stage
+     * @param nanos duration in nanoseconds
+     */
+    void record(Stage stage, long nanos) {
+        stages[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * Records a response.
+     * @param route pattern of the route, or a name such as "static" for the responses outside the routes
+     * @param method method of the request, null if it could not be parsed
+     * @param status status of the response
+     * @param nanos time from the request being parsed to the response being written
+     */
+    void record(String route, String method, int status, long nanos) {
+        if (status < MIN_STATUS || status > MAX_STATUS) return;
+        RouteHistograms histograms = routes.get(route);
+        if (histograms == null) histograms = routes.computeIfAbsent(route, r -> new RouteHistograms());
+        histograms.get(methodIndex(method), status).record(nanos);
+    }
+
+    void connectionOpened() {
+        activeConnections.increment();
+    }
+
+    void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    void received(long bytes) {
+        bytesReceived.add(bytes);
+    }
+
+    void sent(long bytes) {
+        bytesSent.add(bytes);
+    }
+
+    void shed() {
+        shedRequests.increment();
+    }
+
+    /**
+     * Gets the number of responses recorded for a route.
+     * @param route pattern of the route, as registered
+     * @param method method of the requests
+     * @param status status of the responses
+     * @return number of responses
+     */
+    public long getCount(String route, String method, int status) {
+        RouteHistograms histograms = routes.get(route);
+        if (histograms == null || status < MIN_STATUS || status > MAX_STATUS) return 0;
+        Histogram histogram = histograms.histograms.get(methodIndex(method) * (MAX_STATUS - MIN_STATUS + 1) + status - MIN_STATUS);
+        return histogram == null ? 0 : histogram.count();
+    }
+
+    /**
+     * Gets the number of connections that are open.
+     * @return open connections
+     */
+    public long getActiveConnections() {
+        return activeConnections.sum();
+    }
+
+    /**
+     * Gets the number of requests rejected with 503 because the server was overloaded.
+     * @return requests shed
+     */
+    public long getShedRequests() {
+        return shedRequests.sum();
+    }
+
+    /**
+     * Writes every metric in the Prometheus text exposition format.
+     * @return the metrics, one sample per line
+     */
+    public String render() {
+        StringBuilder out = new StringBuilder(16 * 1024);
+        out.append("# HELP http_request_duration_seconds Time from the request being parsed to its response being written.\n");
+        out.append("# TYPE http_request_duration_seconds histogram\n");
+        //sorted so the output is stable between scrapes
+        for (Map.Entry<String, RouteHistograms> route : new ConcurrentSkipListMap<>(routes).entrySet()) {
+            AtomicReferenceArray<Histogram> histograms = route.getValue().histograms;
+            for (int i = 0; i < histograms.length(); i++) {
+                Histogram histogram = histograms.get(i);
+                if (histogram == null) continue;
+                int method = i / (MAX_STATUS - MIN_STATUS + 1);
+                int status = i % (MAX_STATUS - MIN_STATUS + 1) + MIN_STATUS;
+                String labels = "route=\"" + escape(route.getKey()) + "\",method=\"" + METHODS[method] + "\",status=\"" + status + "\"";
+                writeHistogram(out, "http_request_duration_seconds", labels, histogram);
+            }
+        }
+        out.append("# HELP http_stage_duration_seconds Time spent in each stage of the requests.\n");
+        out.append("# TYPE http_stage_duration_seconds histogram\n");
+        for (Stage stage : Stage.values()) {
+            writeHistogram(out, "http_stage_duration_seconds", "stage=\"" + stage.name().toLowerCase() + "\"", stages[stage.ordinal()]);
+        }
+        out.append("# HELP http_active_connections Connections that are open.\n");
+        out.append("# TYPE http_active_connections gauge\n");
+        out.append("http_active_connections ").append(activeConnections.sum()).append('\n');
+        out.append("# HELP http_received_bytes_total Bytes received from the clients.\n");
+        out.append("# TYPE http_received_bytes_total counter\n");
+        out.append("http_received_bytes_total ").append(bytesReceived.sum()).append('\n');
+        out.append("# HELP http_sent_bytes_total Bytes sent to the clients.\n");
+        out.append("# TYPE http_sent_bytes_total counter\n");
+        out.append("http_sent_bytes_total ").append(bytesSent.sum()).append('\n');
+        out.append("# HELP http_shed_requests_total Requests rejected with 503 because the server was overloaded.\n");
+        out.append("# TYPE http_shed_requests_total counter\n");
+        out.append("http_shed_requests_total ").append(shedRequests.sum()).append('\n');
+        return out.toString();
+    }
+
+    private static void writeHistogram(StringBuilder out, String name, String labels, Histogram histogram) {
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulative += histogram.buckets[i].sum();
+            out.append(name).append("_bucket{").append(labels).append(",le=\"");
+            if (i == BUCKETS - 1) out.append("+Inf");
+            else out.append((1L << i) / 1e6);
+            out.append("\"} ").append(cumulative).append('\n');
+        }
+        out.append(name).append("_sum{").append(labels).append("} ").append(histogram.sumNanos.sum() / 1e9).append('\n');
+        out.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+    }
+
+    private static int methodIndex(String method) {
+        for (int i = 0; i < METHODS.length - 1; i++) {
+            if (METHODS[i].equals(method)) return i;
+        }
+        return METHODS.length - 1;
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
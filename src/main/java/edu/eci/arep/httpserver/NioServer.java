@@ -0,0 +1,594 @@
+package edu.eci.arep.httpserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Non-blocking engine of the server. One thread accepts the connections and hands them to a small
+ * number of event loops, each one multiplexing its connections with a {@link Selector}.
+ * The requests are parsed incrementally from the bytes read, the services run on virtual threads
+ * so a slow lambda does not stall the loop, and the responses are written without blocking.
+ * The loops sweep their connections periodically to enforce the read, write and idle timeouts.
+ */
+class NioServer {
+    private static final long SWEEP_INTERVAL = 100;
+    //bytes of a streamed body that can wait in memory to be sent
+    private static final long MAX_QUEUED = 256 * 1024;
+    //answer of a request whose response failed while it was prepared, it closes the connection
+    private static final HttpResponse INTERNAL_ERROR = internalError();
+
+    private static HttpResponse internalError() {
+        HttpResponse response = new HttpResponse(500, "Internal Server Error");
+        HttpServer.completeResponse(response, Map.of(), false);
+        return response;
+    }
+
+    private final int port;
+    private final EventLoop[] loops;
+    private final ExecutorService workers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("nio-worker-", 0).factory());
+    private volatile ServerSocketChannel serverChannel;
+    private volatile boolean running;
+
+    NioServer(int port, int eventLoops) {
+        this.port = port;
+        this.loops = new EventLoop[eventLoops];
+    }
+
+    /**
+     * Opens the server channel, starts the event loops and accepts connections until stopped.
+     * @throws IOException if the server channel cannot be opened
+     */
+    void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), HttpServer.backlog);
+        running = true;
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop();
+            Thread.ofPlatform().name("nio-loop-" + i).start(loops[i]);
+        }
+        int next = 0;
+        try {
+            while (running) {
+                SocketChannel channel;
+                try {
+                    channel = serverChannel.accept();
+                } catch (IOException e) {
+                    if (!running) break;
+                    HttpServer.acceptFailed(e);
+                    continue;
+                }
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[next++ % loops.length].register(channel);
+            }
+        } finally {
+            stop();
+        }
+    }
+
+    /**
+     * Stops accepting connections and closes the event loops with their connections.
+     * @throws IOException if an error occurs while closing the server channel
+     */
+    void stop() throws IOException {
+        running = false;
+        for (EventLoop loop : loops) {
+            if (loop != null) loop.selector.wakeup();
+        }
+        workers.shutdown();
+        if (serverChannel != null) serverChannel.close();
+    }
+
+    /**
+     * Thread that owns a selector and every connection registered on it.
+     * Other threads only talk to it through its task queue.
+     */
+    private final class EventLoop implements Runnable {
+        final Selector selector;
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            execute(() -> {
+                Connection connection = new Connection(this, channel);
+                try {
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (ClosedChannelException e) {
+                    connection.close();
+                }
+            });
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            long lastSweep = System.currentTimeMillis();
+            try {
+                while (running) {
+                    selector.select(SWEEP_INTERVAL);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) task.run();
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isWritable()) connection.flush();
+                            if (key.isValid() && key.isReadable()) connection.read();
+                        } catch (IOException e) {
+                            connection.close();
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                    long now = System.currentTimeMillis();
+                    if (now - lastSweep >= SWEEP_INTERVAL) {
+                        sweep(now);
+                        lastSweep = now;
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Event loop failed: " + e.getMessage());
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    ((Connection) key.attachment()).close();
+                }
+                closeQuietly(selector);
+            }
+        }
+
+        /**
+         * Enforces the timeouts: a request whose head or body is not received in time is answered with 408,
+         * a connection that waits for a new request longer than the keep alive timeout is closed,
+         * and so is one whose client does not read its response within the write timeout.
+         * @param now current time in milliseconds
+         */
+        private void sweep(long now) {
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (connection.isIdle()) {
+                    if (connection.bodyStarted != 0) {
+                        if (now - connection.bodyStarted > HttpServer.readBodyTimeout) connection.timedOut();
+                    } else if (connection.headStarted != 0) {
+                        if (now - connection.headStarted > HttpServer.readHeaderTimeout) connection.timedOut();
+                    } else if (now - connection.lastActive > HttpServer.keepAliveTimeout) {
+                        connection.close();
+                    }
+                } else if (connection.writeDeadline != 0 && now - connection.writeDeadline > 0) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * State of one connection: the bytes received that were not processed yet
+     * and the response bytes that were not written yet.
+     */
+    private final class Connection {
+        final EventLoop loop;
+        final SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer in = ByteBuffer.wrap(RequestParser.acquire());
+        final RequestParser parser = new RequestParser();
+        //only one request of the connection is processed at a time, so its workers share the bounds
+        final Router.Params params = new Router.Params();
+        final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        //file being sent after the buffers of out, with the position of the next byte to send
+        FileChannel file;
+        long filePosition;
+        long fileLength;
+        int served;
+        boolean busy;
+        boolean closeAfterWrite;
+        long lastActive = System.currentTimeMillis();
+        //System.currentTimeMillis when the head and the body of the pending request began to arrive, 0 if they did not
+        long headStarted;
+        long bodyStarted;
+        //System.currentTimeMillis by which the response being written must be sent, 0 if none or if it is streamed
+        long writeDeadline;
+        //body being streamed by a worker, null when there is none
+        volatile LoopOutput streamOut;
+        //System.nanoTime when the response was queued, 0 if none is being written
+        long writeStarted;
+        //head being written, its buffer goes back to the pool once it is sent
+        ByteBuffer head;
+        ByteBuffer[] gather = new ByteBuffer[4];
+        boolean closed;
+
+        Connection(EventLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+            HttpServer.metrics.connectionOpened();
+        }
+
+        boolean isIdle() {
+            return !busy && !hasPendingOutput();
+        }
+
+        boolean hasPendingOutput() {
+            return !out.isEmpty() || file != null;
+        }
+
+        void read() throws IOException {
+            int read = channel.read(in);
+            if (read < 0) {
+                close();
+                return;
+            }
+            HttpServer.metrics.received(read);
+            lastActive = System.currentTimeMillis();
+            processNext();
+        }
+
+        /**
+         * Parses the next complete request of the buffer, if there is one, and runs it on a worker.
+         * Only one request per connection is processed at a time, and only once the previous response
+         * was written, so pipelined responses keep their order.
+         */
+        void processNext() {
+            if (busy || closeAfterWrite || hasPendingOutput()) return;
+            in.flip();
+            int start = in.position();
+            int limit = in.limit();
+            int end;
+            try {
+                end = HttpServer.parse(parser, in.array(), start, limit);
+            } catch (RequestException e) {
+                in.clear();
+                HttpResponse error = HttpServer.errorResponse(e);
+                HttpServer.logAccess(null, null, error, System.nanoTime());
+                respond(error, false);
+                return;
+            }
+            if (end < 0) {
+                if (limit > start) {
+                    if (headStarted == 0) headStarted = System.currentTimeMillis();
+                    if (bodyStarted == 0 && parser.isHeadComplete()) bodyStarted = System.currentTimeMillis();
+                }
+                waitForMore(start, parser.needed(start, limit));
+                return;
+            }
+            headStarted = 0;
+            bodyStarted = 0;
+            long started = System.nanoTime();
+            in.position(end);
+            in.compact();
+            served++;
+            String method = parser.method;
+            String target = parser.target;
+            boolean http11 = parser.http11;
+            Map<String, String> headers = parser.headers;
+            byte[] body = parser.body;
+            boolean keepAlive = running && served < HttpServer.keepAliveMaxRequests
+                    && HttpServer.isKeepAlive(http11, headers.get("connection"));
+            busy = true;
+            updateInterest();
+            workers.execute(() -> {
+                Admission gate = HttpServer.admission;
+                if (gate != null && !gate.acquire()) {
+                    HttpServer.logAccess(method, target, gate.rejection, started);
+                    loop.execute(() -> reject(gate.rejectionBytes));
+                    return;
+                }
+                try {
+                    HttpResponse response = HttpServer.buildResponse(method, target, headers, body, params);
+                    if (response.getBodyWriter() != null) {
+                        stream(response, headers, keepAlive, http11);
+                        HttpServer.logAccess(method, target, response, started);
+                        return;
+                    }
+                    try {
+                        //the channel cannot block in the middle of a body, so JSON bodies are serialized first
+                        if (response.getEntity() != null) {
+                            long serializeStarted = System.nanoTime();
+                            response.serializeEntity();
+                            HttpServer.metrics.record(Metrics.Stage.SERIALIZE, System.nanoTime() - serializeStarted);
+                        }
+                        HttpServer.completeResponse(response, headers, keepAlive);
+                    } catch (RuntimeException e) {
+                        //nothing was sent yet, without an answer the connection would stay busy until the server stops
+                        response.status(500);
+                        HttpServer.logAccess(method, target, response, started);
+                        loop.execute(() -> respond(INTERNAL_ERROR, false));
+                        return;
+                    }
+                    HttpServer.logAccess(method, target, response, started);
+                    loop.execute(() -> respond(response, keepAlive));
+                } finally {
+                    if (gate != null) gate.release();
+                }
+            });
+        }
+
+        /**
+         * Answers a request whose head or body was not received in time with 408 and closes the connection.
+         */
+        void timedOut() {
+            in.clear();
+            headStarted = 0;
+            bodyStarted = 0;
+            HttpResponse error = HttpServer.errorResponse(new RequestException(408, "Request not received in time"));
+            HttpServer.logAccess(null, null, error, System.nanoTime());
+            respond(error, false);
+        }
+
+        /**
+         * Answers a request that was not admitted with the pre-encoded 503 and closes the connection.
+         * @param rejection bytes of the whole response, shared by every rejected request
+         */
+        void reject(byte[] rejection) {
+            if (!channel.isOpen()) return;
+            writeStarted = System.nanoTime();
+            writeDeadline = System.currentTimeMillis() + HttpServer.writeTimeout;
+            out.add(ByteBuffer.wrap(rejection));
+            busy = false;
+            closeAfterWrite = true;
+            try {
+                flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /**
+         * Keeps the incomplete request in the buffer, growing it when it cannot hold the whole request.
+         * The parser rejects the requests above the limits, so the buffer does not grow past them.
+         * @param start position where the incomplete request begins
+         * @param needed bytes required to complete the request, or a lower bound of them
+         */
+        private void waitForMore(int start, int needed) {
+            in.position(start);
+            in.compact();
+            if (needed > in.capacity()) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(needed, in.capacity() * 2));
+                in.flip();
+                bigger.put(in);
+                in = bigger;
+            }
+            updateInterest();
+        }
+
+        void respond(HttpResponse response, boolean keepAlive) {
+            if (!channel.isOpen()) return;
+            writeStarted = System.nanoTime();
+            writeDeadline = System.currentTimeMillis() + HttpServer.writeTimeout;
+            head = ResponseHead.encode(response);
+            out.add(head);
+            if (response.getBody() != null) out.add(ByteBuffer.wrap(response.getBody()));
+            if (response.getFile() != null) {
+                try {
+                    file = FileChannel.open(response.getFile(), StandardOpenOption.READ);
+                    filePosition = 0;
+                    fileLength = response.getContentLength();
+                } catch (IOException e) {
+                    close();
+                    return;
+                }
+            }
+            busy = false;
+            closeAfterWrite = !keepAlive;
+            try {
+                flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /**
+         * Runs the writer of a streamed body on the worker. Its bytes are handed to the loop as they are
+         * written, and the worker waits while too many of them are not sent yet, so a slow client
+         * does not make the body pile up in memory.
+         * @param response response with a streamed body
+         * @param headers headers of the request
+         * @param keepAlive true if the connection could remain open after this response
+         * @param chunked true if the client accepts chunked bodies
+         */
+        void stream(HttpResponse response, Map<String, String> headers, boolean keepAlive, boolean chunked) {
+            LoopOutput sink = new LoopOutput(this);
+            streamOut = sink;
+            boolean reusable;
+            try {
+                reusable = HttpServer.writeStream(response, headers, sink, keepAlive, chunked);
+            } catch (IOException e) {
+                reusable = false;
+            }
+            boolean reuse = reusable;
+            loop.execute(() -> {
+                streamOut = null;
+                busy = false;
+                closeAfterWrite = !reuse;
+                if (!channel.isOpen()) return;
+                try {
+                    flush();
+                } catch (IOException e) {
+                    close();
+                }
+            });
+        }
+
+        /**
+         * Queues a part of a streamed body, on the loop.
+         * @param data bytes to send
+         */
+        void enqueue(ByteBuffer data) {
+            if (!channel.isOpen()) return;
+            out.add(data);
+            try {
+                flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /**
+         * Writes as much of the pending output as the socket accepts without blocking.
+         * Files are sent with FileChannel.transferTo, so they are not copied to the heap.
+         * @throws IOException if an error occurs while writing to the channel
+         */
+        void flush() throws IOException {
+            if (!out.isEmpty()) {
+                //head and body leave in one gathering write, the array is reused between writes
+                int count = out.size();
+                gather = out.toArray(gather);
+                HttpServer.metrics.sent(channel.write(gather, 0, count));
+                Arrays.fill(gather, 0, count, null);
+                while (!out.isEmpty() && !out.peek().hasRemaining()) {
+                    ByteBuffer sent = out.poll();
+                    if (sent == head) {
+                        ResponseHead.release(head);
+                        head = null;
+                    } else if (streamOut != null) {
+                        streamOut.release(sent.capacity());
+                    }
+                }
+                lastActive = System.currentTimeMillis();
+            }
+            if (out.isEmpty() && file != null) {
+                long sent = file.transferTo(filePosition, fileLength - filePosition, channel);
+                if (sent <= 0 && filePosition >= file.size()) throw new IOException("File truncated");
+                filePosition += sent;
+                HttpServer.metrics.sent(sent);
+                lastActive = System.currentTimeMillis();
+                if (filePosition >= fileLength) closeFile();
+            }
+            if (!hasPendingOutput()) {
+                //a streamed body that is still being written, wait for more of it
+                if (busy) {
+                    updateInterest();
+                    return;
+                }
+                if (writeStarted != 0) {
+                    HttpServer.metrics.record(Metrics.Stage.WRITE, System.nanoTime() - writeStarted);
+                    writeStarted = 0;
+                }
+                writeDeadline = 0;
+                //the response is complete, continue with the next request of the connection
+                if (closeAfterWrite) close();
+                else processNext();
+                return;
+            }
+            updateInterest();
+        }
+
+        void updateInterest() {
+            if (key == null || !key.isValid()) return;
+            int ops = 0;
+            if (hasPendingOutput()) ops |= SelectionKey.OP_WRITE;
+            else if (!busy && !closeAfterWrite) ops |= SelectionKey.OP_READ;
+            key.interestOps(ops);
+        }
+
+        void closeFile() {
+            closeQuietly(file);
+            file = null;
+        }
+
+        void close() {
+            if (streamOut != null) streamOut.abort();
+            if (key != null) key.cancel();
+            if (file != null) closeFile();
+            if (!closed) {
+                closed = true;
+                RequestParser.release(in.array());
+                if (head != null) ResponseHead.release(head);
+                head = null;
+                HttpServer.metrics.connectionClosed();
+            }
+            closeQuietly(channel);
+        }
+    }
+
+    /**
+     * Stream given to the writer of a streamed body. Each write is copied and handed to the event loop
+     * of the connection, the writer waits while more than MAX_QUEUED bytes are not sent yet.
+     */
+    private final class LoopOutput extends OutputStream {
+        private final Connection connection;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition drained = lock.newCondition();
+        private long queued;
+        private boolean closed;
+
+        LoopOutput(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return;
+            ByteBuffer copy = ByteBuffer.allocate(len).put(b, off, len).flip();
+            lock.lock();
+            try {
+                while (queued >= MAX_QUEUED && !closed) drained.awaitUninterruptibly();
+                if (closed) throw new IOException("Connection closed");
+                queued += len;
+            } finally {
+                lock.unlock();
+            }
+            connection.loop.execute(() -> connection.enqueue(copy));
+        }
+
+        /**
+         * Called by the loop when bytes were sent.
+         * @param bytes number of bytes sent
+         */
+        void release(int bytes) {
+            lock.lock();
+            try {
+                queued -= bytes;
+                drained.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Called by the loop when the connection is closed, the writer fails on its next write.
+         */
+        void abort() {
+            lock.lock();
+            try {
+                closed = true;
+                drained.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception ignored) {
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package edu.eci.arep.httpserver;
+
+/**
+ * Thrown when the bytes received are not a valid request or exceed the configured limits.
+ * It carries the status the client is answered with before the connection is closed.
+ */
+class RequestException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    /**
+     * @param status status of the response: 400, 408, 413, 414, 431, 501 or 505
+     * @param message description of the problem, sent as the body of the response
+     */
+    RequestException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    /**
+     * Gets the status the client is answered with.
+     * @return HTTP status code
+     */
+    int getStatus() {
+        return status;
+    }
+}
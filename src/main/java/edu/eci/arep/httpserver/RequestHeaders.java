@@ -0,0 +1,93 @@
+package edu.eci.arep.httpserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Header fields of a request, as a read-only map over the bytes of its head.
+ * The parser only records where each name and value are, a value is decoded when it is looked up
+ * and the names are only decoded if the whole map is iterated. Names are matched ignoring their case,
+ * and the values of a repeated field are joined with commas.
+ */
+final class RequestHeaders extends AbstractMap<String, String> {
+    static final RequestHeaders EMPTY = new RequestHeaders(new byte[0], new int[0], 0);
+
+    private final byte[] head;
+    //name start, name end, value start and value end of each field, in the order they were received
+    private final int[] fields;
+    private final int count;
+    private Map<String, String> decoded;
+
+    /**
+     * @param head bytes of the header fields
+     * @param fields four positions per field inside head: name start, name end, value start, value end
+     * @param count number of fields
+     */
+    RequestHeaders(byte[] head, int[] fields, int count) {
+        this.head = head;
+        this.fields = fields;
+        this.count = count;
+    }
+
+    /**
+     * Gets the value of a field, decoding only the fields with that name.
+     * @param key name of the field, in any case
+     * @return the value, the values joined with commas if the field is repeated, null if absent
+     */
+    @Override
+    public String get(Object key) {
+        if (!(key instanceof String name)) return null;
+        String value = null;
+        for (int i = 0; i < count; i++) {
+            int field = i * 4;
+            if (!nameEquals(fields[field], fields[field + 1], name)) continue;
+            String next = new String(head, fields[field + 2], fields[field + 3] - fields[field + 2], StandardCharsets.ISO_8859_1);
+            value = value == null ? next : value + ", " + next;
+        }
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (!(key instanceof String name)) return false;
+        for (int i = 0; i < count; i++) {
+            if (nameEquals(fields[i * 4], fields[i * 4 + 1], name)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Decodes every field, with its name in lower case, the first time the map is iterated.
+     * @return the fields
+     */
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        if (decoded == null) {
+            Map<String, String> all = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                int field = i * 4;
+                String name = new String(head, fields[field], fields[field + 1] - fields[field], StandardCharsets.ISO_8859_1);
+                all.putIfAbsent(name.toLowerCase(), get(name));
+            }
+            decoded = Collections.unmodifiableMap(all);
+        }
+        return decoded.entrySet();
+    }
+
+    private boolean nameEquals(int from, int to, String name) {
+        if (to - from != name.length()) return false;
+        for (int i = 0; i < name.length(); i++) {
+            int b = head[from + i];
+            int c = name.charAt(i);
+            if (b == c) continue;
+            if (b >= 'A' && b <= 'Z') b |= 0x20;
+            if (c >= 'A' && c <= 'Z') c |= 0x20;
+            if (b != c) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,297 @@
+package edu.eci.arep.httpserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Parses HTTP/1.x requests straight from the bytes received, shared by the blocking and the non-blocking engines.
+ * The head is scanned once for its line ends, resuming where the previous call stopped when the request
+ * arrives in several reads, and no String is created per line: the method is matched in place against
+ * constants, and the header fields are copied once and left undecoded in a {@link RequestHeaders} view,
+ * only Content-Length is read from the bytes. The body is read by its exact Content-Length in bytes. The request line, the head and the body have size limits, a request
+ * that exceeds them is rejected before it is buffered completely.
+ * A parser keeps the state of one connection and is not thread safe.
+ */
+final class RequestParser {
+    static final int BUFFER_SIZE = 8 * 1024;
+    private static final ArrayBlockingQueue<byte[]> POOL = new ArrayBlockingQueue<>(256);
+    private static final byte[] EMPTY = new byte[0];
+    private static final String[] METHODS = {"GET", "POST", "PUT", "DELETE", "HEAD", "OPTIONS", "PATCH"};
+
+    private final int maxRequestLine;
+    private final int maxHeaderBytes;
+    private final int maxBodyBytes;
+
+    //state of the request being scanned, relative to its first byte except leading
+    private int leading;
+    private int scanned;
+    private int lineStart;
+    private int requestLineEnd = -1;
+    private int headEnd = -1;
+    private int contentLength;
+
+    //the last request parsed
+    String method;
+    String target;
+    boolean http11;
+    RequestHeaders headers;
+    byte[] body;
+
+    /**
+     * @param maxRequestLine maximum bytes of the request line, 414 above it
+     * @param maxHeaderBytes maximum bytes of the header fields, 431 above it
+     * @param maxBodyBytes maximum bytes of the body, 413 above it
+     */
+    RequestParser(int maxRequestLine, int maxHeaderBytes, int maxBodyBytes) {
+        this.maxRequestLine = maxRequestLine;
+        this.maxHeaderBytes = maxHeaderBytes;
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    /**
+     * Creates a parser with the limits configured in the server.
+     */
+    RequestParser() {
+        this(HttpServer.maxRequestLine, HttpServer.maxHeaderBytes, HttpServer.maxBodyBytes);
+    }
+
+    /**
+     * Takes a buffer of BUFFER_SIZE bytes from the pool.
+     * @return a buffer, its content is undefined
+     */
+    static byte[] acquire() {
+        byte[] buffer = POOL.poll();
+        return buffer != null ? buffer : new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Returns a buffer to the pool, buffers that grew for a big request are left to the garbage collector.
+     * @param buffer buffer taken with acquire
+     */
+    static void release(byte[] buffer) {
+        if (buffer != null && buffer.length == BUFFER_SIZE) POOL.offer(buffer);
+    }
+
+    /**
+     * Parses the request that starts at a position of a buffer. When the request is complete its parts are left
+     * in the fields of the parser. Otherwise the bytes scanned are remembered, so the next call with more bytes
+     * continues from there; the bytes of the request can be moved in between as long as they keep their order.
+     * @param data buffer with the bytes received
+     * @param from position of the first byte of the request, empty lines before it are skipped
+     * @param to position after the last byte received
+     * @return position after the request, -1 if more bytes are needed
+     * @throws RequestException if the request is malformed or exceeds a limit
+     */
+    int parse(byte[] data, int from, int to) throws RequestException {
+        //empty lines are only skipped while no byte of the request was scanned
+        if (scanned == 0) leading = skipEmptyLines(data, from, to) - from;
+        int start = from + leading;
+        if (headEnd < 0) {
+            if (!scanHead(data, start, to)) return -1;
+            parseHead(data, start);
+        }
+        int end = start + headEnd + contentLength;
+        if (end > to) return -1;
+        body = contentLength == 0 ? EMPTY : Arrays.copyOfRange(data, start + headEnd, end);
+        reset();
+        return end;
+    }
+
+    /**
+     * Gets how many bytes the request being parsed needs at least, to grow the buffer that receives it.
+     * @param from position of the first byte of the request, as given to parse
+     * @param to position after the last byte received
+     * @return bytes needed from the start of the request
+     */
+    int needed(int from, int to) {
+        if (headEnd < 0) return to - from + 1;
+        return leading + headEnd + contentLength;
+    }
+
+    /**
+     * Tells if the head of the request being parsed was received and only its body is missing.
+     * @return true once the empty line that ends the head was scanned
+     */
+    boolean isHeadComplete() {
+        return headEnd >= 0;
+    }
+
+    /**
+     * Forgets the request being scanned, the fields of the last request are left as they are.
+     */
+    private void reset() {
+        leading = 0;
+        scanned = 0;
+        lineStart = 0;
+        requestLineEnd = -1;
+        headEnd = -1;
+        contentLength = 0;
+    }
+
+    /**
+     * Skips the empty lines that some clients send between requests.
+     */
+    private static int skipEmptyLines(byte[] data, int from, int to) {
+        while (from < to && (data[from] == '\r' || data[from] == '\n')) from++;
+        return from;
+    }
+
+    /**
+     * Looks for the empty line that ends the head, checking the limits of the request line and the head.
+     * Lines may end with CRLF or with a bare LF.
+     * @return true if the whole head was received
+     */
+    private boolean scanHead(byte[] data, int start, int to) throws RequestException {
+        int i = start + scanned;
+        int line = start + lineStart;
+        for (; i < to; i++) {
+            if (data[i] != '\n') continue;
+            int lineEnd = i > line && data[i - 1] == '\r' ? i - 1 : i;
+            if (requestLineEnd < 0) {
+                if (lineEnd - start > maxRequestLine) throw new RequestException(414, "Request line too long");
+                requestLineEnd = lineEnd - start;
+            } else if (lineEnd == line) {
+                headEnd = i + 1 - start;
+                scanned = headEnd;
+                return true;
+            }
+            line = i + 1;
+        }
+        scanned = i - start;
+        lineStart = line - start;
+        if (requestLineEnd < 0 && scanned > maxRequestLine) throw new RequestException(414, "Request line too long");
+        if (requestLineEnd >= 0 && scanned - requestLineEnd > maxHeaderBytes) {
+            throw new RequestException(431, "Request header fields too large");
+        }
+        return false;
+    }
+
+    /**
+     * Splits the request line and the header fields of a head that was received completely.
+     */
+    private void parseHead(byte[] data, int start) throws RequestException {
+        int lineEnd = start + requestLineEnd;
+        if (headEnd - requestLineEnd > maxHeaderBytes + 4) throw new RequestException(431, "Request header fields too large");
+        int firstSpace = indexOf(data, ' ', start, lineEnd);
+        int secondSpace = firstSpace < 0 ? -1 : indexOf(data, ' ', firstSpace + 1, lineEnd);
+        if (firstSpace <= start || secondSpace <= firstSpace + 1) throw new RequestException(400, "Malformed request line");
+        method = method(data, start, firstSpace);
+        target = new String(data, firstSpace + 1, secondSpace - firstSpace - 1, StandardCharsets.ISO_8859_1);
+        http11 = version(data, secondSpace + 1, lineEnd);
+
+        int end = start + headEnd;
+        int i = lineEnd;
+        //move past the line end of the request line
+        while (i < end && data[i] != '\n') i++;
+        i++;
+        //the header fields are copied once, their names and values are only decoded when they are asked for
+        byte[] head = Arrays.copyOfRange(data, i, end);
+        int[] fields = new int[32];
+        int count = 0;
+        boolean transferEncoding = false;
+        long length = -1;
+        i = 0;
+        while (i < head.length) {
+            int newLine = indexOf(head, '\n', i, head.length);
+            int valueEnd = newLine > i && head[newLine - 1] == '\r' ? newLine - 1 : newLine;
+            if (valueEnd == i) break;
+            if (head[i] == ' ' || head[i] == '\t') throw new RequestException(400, "Folded header lines are not supported");
+            int colon = indexOf(head, ':', i, valueEnd);
+            if (colon <= i) throw new RequestException(400, "Malformed header line");
+            checkName(head, i, colon);
+            int valueStart = colon + 1;
+            while (valueStart < valueEnd && (head[valueStart] == ' ' || head[valueStart] == '\t')) valueStart++;
+            while (valueEnd > valueStart && (head[valueEnd - 1] == ' ' || head[valueEnd - 1] == '\t')) valueEnd--;
+            if (equalsAscii(head, i, colon, "content-length", true)) {
+                long value = contentLength(head, valueStart, valueEnd);
+                if (length >= 0 && length != value) throw new RequestException(400, "Conflicting Content-Length");
+                length = value;
+            } else if (equalsAscii(head, i, colon, "transfer-encoding", true)) {
+                transferEncoding = true;
+            }
+            if (count * 4 == fields.length) fields = Arrays.copyOf(fields, fields.length * 2);
+            fields[count * 4] = i;
+            fields[count * 4 + 1] = colon;
+            fields[count * 4 + 2] = valueStart;
+            fields[count * 4 + 3] = valueEnd;
+            count++;
+            i = newLine + 1;
+        }
+        headers = new RequestHeaders(head, fields, count);
+        if (transferEncoding) throw new RequestException(501, "Transfer-Encoding is not supported in requests");
+        if (length > maxBodyBytes) throw new RequestException(413, "Request body too large");
+        contentLength = (int) Math.max(length, 0);
+    }
+
+    /**
+     * Matches the method against the known ones, so the common methods are not allocated.
+     */
+    private static String method(byte[] data, int from, int to) throws RequestException {
+        for (String method : METHODS) {
+            if (equalsAscii(data, from, to, method, false)) return method;
+        }
+        for (int i = from; i < to; i++) {
+            if (data[i] < 'A' || data[i] > 'Z') throw new RequestException(400, "Malformed method");
+        }
+        return new String(data, from, to - from, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Checks the version of the request line.
+     * @return true for HTTP/1.1, false for HTTP/1.0
+     */
+    private static boolean version(byte[] data, int from, int to) throws RequestException {
+        if (equalsAscii(data, from, to, "HTTP/1.1", false)) return true;
+        if (equalsAscii(data, from, to, "HTTP/1.0", false)) return false;
+        if (to - from > 5 && equalsAscii(data, from, from + 5, "HTTP/", false)) {
+            throw new RequestException(505, "HTTP version not supported");
+        }
+        throw new RequestException(400, "Malformed request line");
+    }
+
+    /**
+     * Checks that a header name only has visible ASCII characters.
+     */
+    private static void checkName(byte[] data, int from, int to) throws RequestException {
+        for (int i = from; i < to; i++) {
+            if (data[i] <= ' ' || data[i] >= 0x7F) throw new RequestException(400, "Malformed header name");
+        }
+    }
+
+    /**
+     * Reads the digits of a Content-Length value.
+     */
+    private long contentLength(byte[] data, int from, int to) throws RequestException {
+        if (from == to) throw new RequestException(400, "Invalid Content-Length");
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9) throw new RequestException(400, "Invalid Content-Length");
+            value = value * 10 + digit;
+            if (value > maxBodyBytes) throw new RequestException(413, "Request body too large");
+        }
+        return value;
+    }
+
+    /**
+     * Compares bytes with an ASCII string, ignoring the case of the letters of the bytes if asked,
+     * the string must then be in lower case.
+     */
+    private static boolean equalsAscii(byte[] data, int from, int to, String s, boolean ignoreCase) {
+        if (to - from != s.length()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            int b = data[from + i];
+            if (ignoreCase && b >= 'A' && b <= 'Z') b |= 0x20;
+            if (b != s.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] data, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == c) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,155 @@
+package edu.eci.arep.httpserver;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Body of a response whose length is not known when it starts to be written.
+ * The head is sent with the first bytes of the body, without Content-Length. For HTTP/1.1 clients
+ * the body is sent with the chunked transfer coding, so the connection can be reused; for HTTP/1.0
+ * clients the end of the body is marked by closing the connection.
+ * Bytes are sent in chunks of up to 8 KB as they are written, flush sends what was written so far.
+ */
+public class ResponseBody extends OutputStream {
+    private final HttpResponse response;
+    private final Map<String, String> requestHeaders;
+    private final OutputStream out;
+    private final boolean keepAlive;
+    private final boolean chunked;
+    private final Map<String, String> trailers = new LinkedHashMap<>();
+    private ChunkedOutputStream framing;
+    private OutputStream target;
+
+    /**
+     * @param response response being written
+     * @param requestHeaders headers of the request, used to negotiate the compression
+     * @param out stream of the connection
+     * @param keepAlive true if the connection remains open after this response
+     * @param chunked true if the client accepts the chunked transfer coding (HTTP/1.1)
+     */
+    ResponseBody(HttpResponse response, Map<String, String> requestHeaders, OutputStream out, boolean keepAlive, boolean chunked) {
+        this.response = response;
+        this.requestHeaders = requestHeaders;
+        this.out = out;
+        this.keepAlive = keepAlive;
+        this.chunked = chunked;
+    }
+
+    /**
+     * Checks if the head was already sent.
+     * @return true if part of the body was written to the connection
+     */
+    boolean isCommitted() {
+        return target != null;
+    }
+
+    /**
+     * Checks if the connection can be reused once the body is finished.
+     * @return true if the body is chunked and the connection is persistent
+     */
+    boolean isReusable() {
+        return chunked && keepAlive;
+    }
+
+    /**
+     * Adds a field sent after the body, such as a checksum computed while writing it.
+     * Trailers are only sent with chunked bodies.
+     * @param name name of the field
+     * @param value value of the field
+     */
+    public void trailer(String name, String value) {
+        trailers.put(name, value);
+    }
+
+    /**
+     * Sends the head of the response, the body is compressed on the fly when the client accepts it.
+     * @throws IOException if an error occurs while writing to the connection
+     */
+    private void commit() throws IOException {
+        Map<String, String> headers = response.getHeaders();
+        headers.putIfAbsent("Content-Type", "text/plain");
+        headers.remove("Content-Length");
+        if (chunked) {
+            headers.put("Transfer-Encoding", "chunked");
+            headers.put("Connection", keepAlive ? "keep-alive" : "close");
+        } else {
+            headers.put("Connection", "close");
+        }
+        String encoding = null;
+        if (!headers.containsKey("Content-Encoding") && Compression.isCompressible(headers.get("Content-Type"), Long.MAX_VALUE)) {
+            headers.put("Vary", "Accept-Encoding");
+            encoding = Compression.negotiate(requestHeaders.get("accept-encoding"));
+            if (encoding != null) headers.put("Content-Encoding", encoding);
+        }
+        ByteBuffer head = ResponseHead.encode(response);
+        try {
+            out.write(head.array(), head.position(), head.remaining());
+        } finally {
+            ResponseHead.release(head);
+        }
+        OutputStream connection;
+        if (chunked) {
+            framing = new ChunkedOutputStream(out);
+            connection = framing;
+        } else {
+            connection = new FilterOutputStream(out) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+                @Override
+                public void close() throws IOException {
+                    //the connection is closed by the server, not by the body
+                    flush();
+                }
+            };
+        }
+        target = encoding == null ? connection : Compression.wrap(connection, encoding, Deflater.BEST_SPEED);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (target == null) commit();
+        target.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (target == null) commit();
+        target.write(b, off, len);
+    }
+
+    /**
+     * Sends what was written so far to the client, as a chunk of its own.
+     * @throws IOException if an error occurs while writing to the connection
+     */
+    @Override
+    public void flush() throws IOException {
+        if (target == null) commit();
+        target.flush();
+    }
+
+    /**
+     * The body is ended by the server once the writer returns, closing it does nothing.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Ends the body, finishing the compressed data if there is any, and sends the last chunk with the trailers.
+     * @throws IOException if an error occurs while writing to the connection
+     */
+    void finish() throws IOException {
+        if (target == null) commit();
+        //closing the compressor writes its last block, the framing keeps the connection open
+        target.close();
+        if (framing != null) framing.finish(trailers);
+        out.flush();
+    }
+}
@@ -0,0 +1,142 @@
+package edu.eci.arep.httpserver;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodes the status line and the headers of a response. The status lines and the names and values
+ * of the common headers are encoded once as bytes, a head is copied from them into a buffer of the
+ * request buffer pool, and only the uncommon values (lengths, ETags, dates) are encoded per response,
+ * straight into the buffer without creating a String of the whole head.
+ */
+final class ResponseHead {
+    private static final int MIN_STATUS = 100;
+    private static final int MAX_STATUS = 599;
+    private static final String[] MESSAGES = new String[MAX_STATUS - MIN_STATUS + 1];
+    private static final byte[][] STATUS_LINES = new byte[MAX_STATUS - MIN_STATUS + 1][];
+    private static final byte[] CRLF = {'\r', '\n'};
+    //"Name: " of the headers the server sets
+    private static final Map<String, byte[]> NAMES = new HashMap<>();
+    //values that most responses share
+    private static final Map<String, byte[]> VALUES = new HashMap<>();
+
+    static {
+        message(200, "OK");
+        message(201, "Created");
+        message(204, "No Content");
+        message(304, "Not Modified");
+        message(400, "Bad Request");
+        message(401, "Unauthorized");
+        message(403, "Forbidden");
+        message(404, "Not Found");
+        message(405, "Method Not Allowed");
+        message(406, "Not Acceptable");
+        message(408, "Request Timeout");
+        message(413, "Content Too Large");
+        message(414, "URI Too Long");
+        message(431, "Request Header Fields Too Large");
+        message(501, "Not Implemented");
+        message(503, "Service Unavailable");
+        message(505, "HTTP Version Not Supported");
+        for (int status = MIN_STATUS; status <= MAX_STATUS; status++) {
+            //any other status keeps the message it always had
+            if (MESSAGES[status - MIN_STATUS] == null) MESSAGES[status - MIN_STATUS] = "Internal Server Error";
+            STATUS_LINES[status - MIN_STATUS] = ascii("HTTP/1.1 " + status + " " + MESSAGES[status - MIN_STATUS] + "\r\n");
+        }
+        for (String name : new String[]{"Content-Type", "Content-Length", "Content-Encoding", "Connection", "Transfer-Encoding",
+                "Vary", "ETag", "Last-Modified", "Cache-Control", "Allow", "Retry-After", "Location"}) {
+            NAMES.put(name, ascii(name + ": "));
+        }
+        for (String value : new String[]{"application/json", "text/plain", "text/html", "text/css", "application/javascript",
+                "image/png", "image/jpeg", "application/octet-stream", HttpResponse.NDJSON, "keep-alive", "close", "chunked",
+                "gzip", "deflate", "Accept-Encoding", "no-cache", "public, max-age=3600", "public, max-age=86400", "GET"}) {
+            VALUES.put(value, ascii(value));
+        }
+    }
+
+    private ResponseHead() {
+    }
+
+    private static void message(int status, String message) {
+        MESSAGES[status - MIN_STATUS] = message;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Gets the reason phrase of a status.
+     * @param status status code
+     * @return message of the status, "Internal Server Error" for the statuses without one
+     */
+    static String message(int status) {
+        if (status < MIN_STATUS || status > MAX_STATUS) return "Internal Server Error";
+        return MESSAGES[status - MIN_STATUS];
+    }
+
+    /**
+     * Encodes the status line and the headers of a response, ended by the empty line,
+     * into a buffer taken from the pool. The buffer must be given back with release once it is written.
+     * @param response response to encode
+     * @return buffer with the head between its position and its limit
+     */
+    static ByteBuffer encode(HttpResponse response) {
+        byte[] buffer = RequestParser.acquire();
+        int status = response.getStatusCode();
+        int length;
+        if (status >= MIN_STATUS && status <= MAX_STATUS) {
+            length = put(buffer, 0, STATUS_LINES[status - MIN_STATUS]);
+        } else {
+            length = put(buffer, 0, ascii("HTTP/1.1 " + status + " " + response.getStatusMessage() + "\r\n"));
+        }
+        for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+            String text = String.valueOf(header.getValue());
+            byte[] name = NAMES.get(header.getKey());
+            //the longest a header can take, every char is at most three bytes in UTF-8
+            int needed = length + header.getKey().length() * 3 + text.length() * 3 + 4 + CRLF.length;
+            if (needed > buffer.length) buffer = Arrays.copyOf(buffer, Math.max(needed, buffer.length * 2));
+            if (name != null) {
+                length = put(buffer, length, name);
+            } else {
+                length = putString(buffer, length, header.getKey());
+                buffer[length++] = ':';
+                buffer[length++] = ' ';
+            }
+            byte[] value = VALUES.get(text);
+            length = value != null ? put(buffer, length, value) : putString(buffer, length, text);
+            length = put(buffer, length, CRLF);
+        }
+        if (length + CRLF.length > buffer.length) buffer = Arrays.copyOf(buffer, length + CRLF.length);
+        length = put(buffer, length, CRLF);
+        return ByteBuffer.wrap(buffer, 0, length);
+    }
+
+    /**
+     * Gives the buffer of an encoded head back to the pool.
+     * @param head buffer returned by encode
+     */
+    static void release(ByteBuffer head) {
+        RequestParser.release(head.array());
+    }
+
+    private static int put(byte[] buffer, int position, byte[] bytes) {
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        return position + bytes.length;
+    }
+
+    /**
+     * Encodes a string in UTF-8, the ASCII chars are copied without creating an array for them.
+     */
+    private static int putString(byte[] buffer, int position, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) return put(buffer, position, s.substring(i).getBytes(StandardCharsets.UTF_8));
+            buffer[position++] = (byte) c;
+        }
+        return position;
+    }
+}
@@ -0,0 +1,262 @@
+package edu.eci.arep.httpserver;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Routes of the services, compiled into a trie with one node per path segment.
+ * Static segments are found in a small hash table compared in place against the request path,
+ * so a lookup does not create substrings and its cost depends on the number of segments,
+ * not on the number of routes. Segments written as {name} are path parameters,
+ * static segments take precedence over them. The bounds of the parameters are written into an array
+ * owned by the connection, so a lookup does not allocate.
+ */
+final class Router {
+    static final String[] METHODS = {"GET", "POST", "PUT", "DELETE"};
+    static final int[] NO_PARAMS = new int[0];
+
+    /**
+     * A registered service.
+     * @param method index of the method in METHODS
+     * @param segments segments of the route, parameters keep their braces
+     * @param service service that handles the route
+     */
+    private record Definition(int method, String[] segments, Service service) {}
+
+    /**
+     * Bounds of the path parameters found by the last lookup, the start and end of each one inside the path.
+     * A connection keeps one and reuses it for its requests, it only grows when a route with more
+     * parameters is registered. It is not thread safe.
+     */
+    static final class Params {
+        int[] bounds = NO_PARAMS;
+    }
+
+    private final Map<String, Definition> definitions = new LinkedHashMap<>();
+    //compiled trie, null when a route was registered after the last compilation
+    private volatile Route root;
+
+    /**
+     * Registers a service, a route registered twice for the same method replaces the previous service.
+     * @param method HTTP method of the route
+     * @param route path of the route, relative to /app, with {name} for the parameters
+     * @param service service that handles the route
+     * @throws IllegalArgumentException if the method is not supported or the route does not start with /
+     */
+    synchronized void add(String method, String route, Service service) throws IllegalArgumentException {
+        int index = methodIndex(method);
+        if (index < 0) throw new IllegalArgumentException("Router: method " + method + " not supported");
+        if (route == null || !route.startsWith("/")) throw new IllegalArgumentException("Router: route must start with /");
+        if (service == null) throw new IllegalArgumentException("Router: service cannot be null");
+        List<String> segments = new ArrayList<>();
+        StringBuilder shape = new StringBuilder(method);
+        for (String segment : route.split("/")) {
+            if (segment.isEmpty()) continue;
+            boolean param = segment.length() > 2 && segment.startsWith("{") && segment.endsWith("}");
+            segments.add(segment);
+            shape.append('/').append(param ? "{}" : segment);
+        }
+        definitions.put(shape.toString(), new Definition(index, segments.toArray(new String[0]), service));
+        root = null;
+    }
+
+    /**
+     * Builds the trie of the registered routes, it is done when the server starts
+     * and again on the next lookup if more routes are registered later.
+     * @return root of the trie
+     */
+    synchronized Route compile() {
+        if (root != null) return root;
+        Builder top = new Builder();
+        for (Definition definition : definitions.values()) {
+            Builder node = top;
+            List<String> names = new ArrayList<>();
+            for (String segment : definition.segments) {
+                if (segment.length() > 2 && segment.startsWith("{") && segment.endsWith("}")) {
+                    names.add(segment.substring(1, segment.length() - 1));
+                    if (node.param == null) node.param = new Builder();
+                    node = node.param;
+                } else {
+                    node = node.children.computeIfAbsent(segment, s -> new Builder());
+                }
+            }
+            node.services[definition.method] = definition.service;
+            node.paramNames[definition.method] = names.toArray(new String[0]);
+            node.pattern = "/" + String.join("/", definition.segments);
+        }
+        root = top.build();
+        return root;
+    }
+
+    /**
+     * Finds the route of a path.
+     * @param path decoded path of the request
+     * @param from position where the route starts inside the path, after the /app prefix
+     * @param params receives the bounds of the parameters, grown to the routes of the same trie that is searched
+     * @return node of the route, null if no route has that path
+     */
+    Route find(String path, int from, Params params) {
+        Route top = root;
+        if (top == null) top = compile();
+        if (params.bounds.length < top.maxParams * 2) params.bounds = new int[top.maxParams * 2];
+        int end = path.length();
+        //a trailing slash is ignored
+        while (end > from && path.charAt(end - 1) == '/') end--;
+        return match(top, path, from, end, params.bounds, 0);
+    }
+
+    private static Route match(Route node, String path, int pos, int end, int[] bounds, int captured) {
+        if (pos >= end) return node.allow != null ? node : null;
+        int start = pos + 1;
+        int stop = path.indexOf('/', start);
+        if (stop < 0 || stop > end) stop = end;
+        Route child = node.child(path, start, stop);
+        if (child != null) {
+            Route found = match(child, path, stop, end, bounds, captured);
+            if (found != null) return found;
+        }
+        if (node.param != null && stop > start) {
+            Route found = match(node.param, path, stop, end, bounds, captured + 1);
+            if (found != null) {
+                bounds[captured * 2] = start;
+                bounds[captured * 2 + 1] = stop;
+                return found;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the position of a method in METHODS.
+     * @param method HTTP method
+     * @return index of the method, -1 if it is not supported
+     */
+    static int methodIndex(String method) {
+        for (int i = 0; i < METHODS.length; i++) {
+            if (METHODS[i].equals(method)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Node of the compiled trie, immutable once built.
+     */
+    static final class Route {
+        private final String[] keys;
+        private final Route[] children;
+        private final int mask;
+        private final Route param;
+        private final Service[] services;
+        private final String[][] paramNames;
+        //value of the Allow header, null if no service ends at this node
+        private final String allow;
+        //route as registered, used as the label of its metrics
+        private final String pattern;
+        //most parameters of a route below this node, for the root the size of the bounds of a lookup
+        private final int maxParams;
+
+        private Route(String[] keys, Route[] children, Route param, Service[] services, String[][] paramNames, String pattern) {
+            this.pattern = pattern;
+            this.keys = keys;
+            this.children = children;
+            this.mask = keys.length - 1;
+            this.param = param;
+            this.services = services;
+            this.paramNames = paramNames;
+            StringBuilder allow = new StringBuilder();
+            for (int i = 0; i < METHODS.length; i++) {
+                if (services[i] == null) continue;
+                if (allow.length() > 0) allow.append(", ");
+                allow.append(METHODS[i]);
+            }
+            this.allow = allow.length() == 0 ? null : allow.toString();
+            int max = param == null ? 0 : param.maxParams + 1;
+            for (Route child : children) {
+                if (child != null) max = Math.max(max, child.maxParams);
+            }
+            this.maxParams = max;
+        }
+
+        /**
+         * Looks up a static child comparing the segment in place, with the same hash as String.hashCode.
+         */
+        private Route child(String path, int start, int stop) {
+            if (children.length == 0) return null;
+            int hash = 0;
+            for (int i = start; i < stop; i++) hash = 31 * hash + path.charAt(i);
+            int length = stop - start;
+            for (int i = spread(hash) & mask; keys[i] != null; i = (i + 1) & mask) {
+                if (keys[i].length() == length && path.regionMatches(start, keys[i], 0, length)) return children[i];
+            }
+            return null;
+        }
+
+        /**
+         * Gets the service of a method.
+         * @param method HTTP method of the request
+         * @return service, null if the route does not accept the method
+         */
+        Service service(String method) {
+            int index = methodIndex(method);
+            return index < 0 ? null : services[index];
+        }
+
+        /**
+         * Gets the names of the parameters of the route, in the order they appear in the path.
+         * @param method HTTP method of the request
+         * @return names of the parameters
+         */
+        String[] paramNames(String method) {
+            String[] names = paramNames[methodIndex(method)];
+            return names == null ? new String[0] : names;
+        }
+
+        /**
+         * Gets the route as it was registered, with {name} for its parameters.
+         * @return path of the route relative to /app
+         */
+        String pattern() {
+            return pattern;
+        }
+
+        /**
+         * Gets the methods accepted by the route.
+         * @return value of the Allow header
+         */
+        String allow() {
+            return allow;
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Mutable node used while compiling.
+     */
+    private static final class Builder {
+        final Map<String, Builder> children = new LinkedHashMap<>();
+        Builder param;
+        final Service[] services = new Service[METHODS.length];
+        final String[][] paramNames = new String[METHODS.length][];
+        String pattern;
+
+        Route build() {
+            //open addressing table at most half full
+            int size = 1;
+            while (size < children.size() * 2) size <<= 1;
+            String[] keys = new String[children.isEmpty() ? 0 : size];
+            Route[] nodes = new Route[keys.length];
+            for (Map.Entry<String, Builder> entry : children.entrySet()) {
+                int i = spread(entry.getKey().hashCode()) & (keys.length - 1);
+                while (keys[i] != null) i = (i + 1) & (keys.length - 1);
+                keys[i] = entry.getKey();
+                nodes[i] = entry.getValue().build();
+            }
+            return new Route(keys, nodes, param == null ? null : param.build(), services, paramNames, pattern);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package edu.eci.arep.httpserver;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+/**
+ * Keeps the content of the static files in memory so the hot files are served without touching the disk.
+ * The cache holds at most a budget of bytes, evicting the least recently used files first,
+ * and a {@link WatchService} over the static directory drops the files that change on disk.
+ */
+public final class StaticFileCache implements AutoCloseable {
+    /**
+     * Bytes of one version of a file. Versions larger than the in-memory limit
+     * only keep their path and length, their body is null and they are streamed from disk.
+     */
+    public record Representation(byte[] body, Path file, long length, String etag) {
+        long weight() {
+            return body == null ? 0 : body.length;
+        }
+    }
+
+    /**
+     * A cached file: its content-type, its validators, its original bytes and, when it is
+     * compressible or has a ".gz" sibling, its gzip bytes (null otherwise).
+     * The etag is a hash of the content, computed once per version of the file.
+     */
+    public record Entry(String contentType, String etag, String lastModified, long lastModifiedSeconds,
+                        Representation identity, Representation gzip) {
+        long weight() {
+            return identity.weight() + (gzip == null ? 0 : gzip.weight());
+        }
+        public byte[] body() {
+            return identity.body();
+        }
+    }
+
+    private final long maxBytes;
+    private final long maxFileBytes;
+    private final Function<String, String> contentTypes;
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes;
+    //changes every time something is invalidated, so a file read before the change is not cached after it
+    private long generation;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final WatchService watcher;
+
+    /**
+     * Creates the cache of a static directory and starts watching it.
+     * @param root directory of the static files
+     * @param maxBytes maximum number of bytes kept in memory
+     * @param maxFileBytes files larger than this are not loaded in memory
+     * @param contentTypes resolves the content-type of a file from its path
+     * @throws IOException if the directory cannot be watched
+     */
+    public StaticFileCache(Path root, long maxBytes, long maxFileBytes, Function<String, String> contentTypes) throws IOException {
+        this.maxBytes = maxBytes;
+        this.maxFileBytes = maxFileBytes;
+        this.contentTypes = contentTypes;
+        this.watcher = FileSystems.getDefault().newWatchService();
+        registerAll(root.toAbsolutePath().normalize());
+        Thread.ofPlatform().daemon().name("static-files-watcher").start(this::watch);
+    }
+
+    /**
+     * Returns the content of a file, reading it from disk only when it is not cached.
+     * @param fullPath path of the file
+     * @return content and content-type of the file
+     * @throws FileNotFoundException if the file does not exist
+     * @throws IOException if an error occurs while reading the file
+     */
+    public Entry get(String fullPath) throws IOException {
+        Path path = Path.of(fullPath).toAbsolutePath().normalize();
+        long readGeneration;
+        synchronized (this) {
+            Entry entry = entries.get(path);
+            if (entry != null) {
+                hits.increment();
+                return entry;
+            }
+            readGeneration = generation;
+        }
+        misses.increment();
+        if (!Files.isRegularFile(path)) throw new FileNotFoundException(fullPath + " (No such file or directory)");
+        Entry entry = load(path, contentTypes.apply(fullPath));
+        put(path, entry, readGeneration);
+        return entry;
+    }
+
+    /**
+     * Reads a file with its validators, the content of large files is hashed in blocks without keeping it in memory.
+     * @param path path of the file
+     * @param contentType content-type of the file
+     * @return entry of the file
+     * @throws IOException if an error occurs while reading the file
+     */
+    private Entry load(Path path, String contentType) throws IOException {
+        Instant modified = Files.getLastModifiedTime(path).toInstant();
+        long length = Files.size(path);
+        MessageDigest digest = sha256();
+        byte[] body = null;
+        if (length > maxFileBytes) {
+            try (InputStream in = Files.newInputStream(path)) {
+                byte[] block = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(block)) > 0) digest.update(block, 0, read);
+            }
+        } else {
+            body = Files.readAllBytes(path);
+            length = body.length;
+            digest.update(body);
+        }
+        String hash = HexFormat.of().formatHex(digest.digest(), 0, 16);
+        String etag = "\"" + hash + "\"";
+        String lastModified = DateTimeFormatter.RFC_1123_DATE_TIME.format(modified.atZone(ZoneOffset.UTC));
+        Representation identity = new Representation(body, path, length, etag);
+        return new Entry(contentType, etag, lastModified, modified.getEpochSecond(),
+                identity, loadGzip(path, contentType, body, "\"" + hash + "-gzip\""));
+    }
+
+    /**
+     * Gets the gzip version of a file, compressing it only once when it is loaded.
+     * A ".gz" file next to it is used as is, large files without one are not compressed.
+     * @param path path of the file
+     * @param contentType content-type of the file
+     * @param body content of the file, null if it is not kept in memory
+     * @param etag validator of the gzip version
+     * @return gzip version, or null when there is none
+     * @throws IOException if an error occurs while reading the ".gz" file
+     */
+    private Representation loadGzip(Path path, String contentType, byte[] body, String etag) throws IOException {
+        Path sibling = path.resolveSibling(path.getFileName() + ".gz");
+        if (Files.isRegularFile(sibling)) {
+            long length = Files.size(sibling);
+            if (length > maxFileBytes) return new Representation(null, sibling, length, etag);
+            byte[] gzip = Files.readAllBytes(sibling);
+            return new Representation(gzip, sibling, gzip.length, etag);
+        }
+        if (body == null || !Compression.isCompressible(contentType, body.length)) return null;
+        byte[] gzip = Compression.compress(body, Compression.GZIP, Deflater.BEST_COMPRESSION);
+        if (gzip.length >= body.length) return null;
+        return new Representation(gzip, null, gzip.length, etag);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private synchronized void put(Path path, Entry entry, long readGeneration) {
+        long size = entry.weight();
+        if (readGeneration != generation || size > maxBytes) return;
+        Entry previous = entries.put(path, entry);
+        if (previous != null) usedBytes -= previous.weight();
+        usedBytes += size;
+        Iterator<Map.Entry<Path, Entry>> eldest = entries.entrySet().iterator();
+        while (usedBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<Path, Entry> evicted = eldest.next();
+            usedBytes -= evicted.getValue().weight();
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Removes a file from the cache.
+     * @param path absolute path of the file
+     */
+    public synchronized void invalidate(Path path) {
+        generation++;
+        Entry removed = entries.remove(path);
+        if (removed != null) usedBytes -= removed.weight();
+    }
+
+    /**
+     * Removes every file from the cache.
+     */
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+    public long getMisses() {
+        return misses.sum();
+    }
+    public long getEvictions() {
+        return evictions.sum();
+    }
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Stops watching the static directory.
+     * @throws IOException if an error occurs while closing the watch service
+     */
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+    }
+
+    /**
+     * Registers a directory and its subdirectories in the watch service.
+     * @param directory directory to watch
+     * @throws IOException if a directory cannot be registered
+     */
+    private void registerAll(Path directory) throws IOException {
+        try (Stream<Path> directories = Files.walk(directory)) {
+            for (Path dir : (Iterable<Path>) directories.filter(Files::isDirectory)::iterator) {
+                dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            }
+        }
+    }
+
+    /**
+     * Invalidates the files reported by the watch service until it is closed.
+     */
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                Path directory = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        clear();
+                        continue;
+                    }
+                    Path changed = directory.resolve((Path) event.context());
+                    String name = changed.getFileName().toString();
+                    //a precompressed file belongs to the entry of the original file
+                    if (name.endsWith(".gz")) invalidate(changed.resolveSibling(name.substring(0, name.length() - 3)));
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)) {
+                        try {
+                            registerAll(changed);
+                        } catch (IOException e) {
+                            System.err.println("Static files watcher failed: " + e.getMessage());
+                        }
+                    }
+                    invalidate(changed);
+                }
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            //the cache was closed
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package edu.eci.arep;
+
+import edu.eci.arep.httpserver.AccessLog;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AccessLogTests {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /*
+     *Each request is written as one line with its fields, unknown values are written as "-"
+     */
+    @Test
+    public void testLines() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("logs/access.log");
+        AccessLog log = new AccessLog(file, AccessLog.Level.ALL, 1.0, 1024 * 1024, 2, 64);
+        assertTrue("Should queue the entry",log.log("GET", "/app/hello?name=a", 200, 12, 345_000));
+        assertTrue("Should queue the entry",log.log(null, null, 400, -1, 0));
+        log.close();
+        List<String> lines = Files.readAllLines(file);
+        assertEquals("Should write one line per request",2, lines.size());
+        assertTrue("Should have the fields",lines.get(0).endsWith(" method=GET path=/app/hello?name=a status=200 bytes=12 latency_us=345"));
+        assertTrue("Should mark the unknown fields",lines.get(1).endsWith(" method=- path=- status=400 bytes=- latency_us=0"));
+    }
+
+    /*
+     *Successful requests are sampled and the ERRORS level only keeps the errors, errors are always written
+     */
+    @Test
+    public void testLevelsAndSampling() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("sampled.log");
+        AccessLog log = new AccessLog(file, AccessLog.Level.ALL, 0.0, 1024 * 1024, 2, 64);
+        assertFalse("Should not keep successful requests",log.log("GET", "/a", 200, 1, 1));
+        assertTrue("Should keep the errors",log.log("GET", "/b", 500, 1, 1));
+        log.close();
+        assertEquals(1, Files.readAllLines(file).size());
+
+        Path errors = folder.getRoot().toPath().resolve("errors.log");
+        log = new AccessLog(errors, AccessLog.Level.ERRORS, 1.0, 1024 * 1024, 2, 64);
+        assertFalse("Should not keep successful requests",log.log("GET", "/a", 204, 0, 1));
+        assertTrue("Should keep the errors",log.log("GET", "/b", 404, 10, 1));
+        log.close();
+        assertEquals(1, Files.readAllLines(errors).size());
+    }
+
+    /*
+     *The file is rotated when it reaches its size, only the configured number of old files is kept
+     */
+    @Test
+    public void testRotation() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("rotated.log");
+        AccessLog log = new AccessLog(file, AccessLog.Level.ALL, 1.0, 200, 2, 64);
+        for (int i = 0; i < 40; i++) {
+            log.log("GET", "/app/item/" + i, 200, i, 1000);
+        }
+        log.close();
+        assertTrue("Should keep the current file",Files.size(file) <= 200);
+        assertTrue("Should keep the first rotated file",Files.exists(file.resolveSibling("rotated.log.1")));
+        assertTrue("Should keep the second rotated file",Files.exists(file.resolveSibling("rotated.log.2")));
+        assertFalse("Should delete older files",Files.exists(file.resolveSibling("rotated.log.3")));
+        assertTrue("Should end with the last request",Files.readString(file).contains("path=/app/item/39 "));
+    }
+
+    /*
+     *Producers never wait for the writer, entries that do not fit are dropped and counted
+     */
+    @Test
+    public void testOverload() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("overload.log");
+        AccessLog log = new AccessLog(file, AccessLog.Level.ALL, 1.0, 64 * 1024 * 1024, 1, 16);
+        Thread[] producers = new Thread[4];
+        for (int t = 0; t < producers.length; t++) {
+            producers[t] = Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 50000; i++) log.log("GET", "/load", 200, 0, 1);
+            });
+        }
+        for (Thread producer : producers) producer.join();
+        log.close();
+        assertEquals("Every entry should be written or dropped",200000, log.getWritten() + log.getDropped());
+        assertEquals("Should write the lines counted",log.getWritten(), Files.readAllLines(file).size());
+    }
+}
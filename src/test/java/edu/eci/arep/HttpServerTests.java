@@ -1,13 +1,23 @@
 package edu.eci.arep;
 import edu.eci.arep.classes.Task;
 import org.junit.*;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 import edu.eci.arep.connection.URLConnection;
+import edu.eci.arep.helpers.JsonReader;
+import edu.eci.arep.httpserver.AccessLog;
+import edu.eci.arep.httpserver.Service;
 
 import static edu.eci.arep.classes.TaskManager.getTaskManager;
 import static edu.eci.arep.httpserver.HttpServer.*;
@@ -23,14 +33,31 @@ public class HttpServerTests {
     *We define other lambda expressions to make tests
      */
     public static void setUp() throws Exception {
+        //images are sent from disk with transferTo
+        zeroCopyThreshold(4096);
         staticfiles("/resources");
         get("/tasks", (req, res) -> {
             String param = req.getValues("name");
             if (param == null) {
                 return res.status(400).body("Missing filter parameter");
             }
+            String filter = param.equals("All") ? null : param;
+            String limit = req.getValues("limit");
+            String cursor = req.getValues("cursor");
+            try {
+                int after = cursor == null ? 0 : Integer.parseInt(cursor);
+                if ("ndjson".equals(req.getValues("format"))) {
+                    return res.body(getTaskManager().iterateTasks(filter, after)).contentType("application/x-ndjson");
+                }
+                if (limit != null || cursor != null) {
+                    int size = limit == null ? 100 : Integer.parseInt(limit);
+                    return res.body(getTaskManager().getTasksByName(filter, after, size));
+                }
+            } catch (IllegalArgumentException e) {
+                return res.status(400).body("Invalid limit or cursor");
+            }
             List<Task> tasks;
-            if(!param.equals("All")){
+            if(filter != null){
                 tasks = getTaskManager().getTasksByName(param);
             }else{
                 tasks = getTaskManager().getTasks();
@@ -38,6 +65,29 @@ public class HttpServerTests {
             return res.body(tasks);
         });
 
+        //Save a task sent as JSON, under two routes
+        Service saveTask = (req, res) -> {
+            Task values = req.getBody(Task.class);
+            if (values == null || values.getName() == null || values.getName().isEmpty()
+                    || values.getDescription() == null || values.getDescription().isEmpty()) {
+                return res.status(400).body("Missing values, Task Name and Task Description are required");
+            }
+            return res.body(getTaskManager().addTask(values.getName(), values.getDescription()));
+        };
+        post("/saveTask", saveTask);
+        post("/save", saveTask);
+        //Task by id, from a path parameter
+        get("/tasks/{id}", (req, res) -> {
+            Task task = getTaskManager().getTask(Integer.parseInt(req.getParam("id")));
+            return task == null ? res.status(404).body("Task not found") : res.body(task);
+        });
+        //Many routes with parameters, the static segments take precedence
+        for (int i = 0; i < 300; i++) {
+            String prefix = "route" + i;
+            get("/" + prefix + "/{a}/items/{b}", (req, res) -> res.body(prefix + ":" + req.getParam("a") + ":" + req.getParam("b")));
+        }
+        get("/route7/fixed/items/{b}", (req, res) -> res.body("fixed:" + req.getParam("b")));
+        delete("/route7/{a}/items/{b}", (req, res) -> res.body("deleted"));
         //Send a json
         get("/json", (req, res) -> {
             return res.body("{\"status\":\"ok\"}")
@@ -66,6 +116,44 @@ public class HttpServerTests {
         get("/emptyBody", (req, res) -> {
             return res.status(500);
         });
+        //Long text that is worth compressing
+        get("/repeat", (req, res) -> {
+            return res.body("0123456789,".repeat(1000));
+        });
+        //List bigger than the buffer of the JSON writer
+        get("/manyTasks", (req, res) -> {
+            List<Task> tasks = new ArrayList<>();
+            for (int i = 1; i <= 5000; i++) tasks.add(new Task("Task " + i, "Description " + i, i));
+            return res.body(tasks);
+        });
+        //Body written while it is sent, with a trailer computed at the end
+        get("/countdown", (req, res) -> res.contentType("text/plain").stream(body -> {
+            int sum = 0;
+            for (int i = 3; i >= 1; i--) {
+                body.write((i + "\n").getBytes());
+                body.flush();
+                sum += i;
+            }
+            body.trailer("X-Sum", String.valueOf(sum));
+        }));
+        //Streamed body that fails before writing anything
+        get("/brokenStream", (req, res) -> res.stream(body -> {
+            throw new IOException("broken");
+        }));
+        //JSON body that fails while it is serialized, before anything is sent
+        get("/brokenEntity", (req, res) -> res.body((Iterable<Task>) () -> {
+            throw new IllegalStateException("broken");
+        }));
+        //Query parameters and headers as the service sees them
+        get("/echo", (req, res) -> res.body(req.getValues("q") + "|" + req.getAllValues("tag") + "|"
+                + req.getValues("empty") + "|" + req.getValues("missing") + "|" + req.getHeader("X-Custom")));
+        //Sets a status and headers outside the pre-encoded ones
+        get("/created", (req, res) -> res.status(201).header("X-Label", "año 2024").body("created"));
+        //Takes one second to answer
+        get("/slow", (req, res) -> {
+            try { Thread.sleep(1000); } catch (InterruptedException ignored) {}
+            return res.body("slow");
+        });
 
         //start the server
         urlConnection = new URLConnection(port);
@@ -77,6 +165,8 @@ public class HttpServerTests {
     }
     @AfterClass
     public static void tearDown() throws Exception {
+        stop();
+        zeroCopyThreshold(256 * 1024);
         if (serverThread != null) {
             serverThread.interrupt();
         }
@@ -123,6 +213,10 @@ public class HttpServerTests {
         HttpURLConnection getConnection = urlConnection.createGetConnection("/images/logo.png");
         int responseCode = getConnection.getResponseCode();
         assertEquals("Should return 200 OK",200, responseCode);
+        byte[] expected = Files.readAllBytes(Path.of("src/main/resources/images/logo.png"));
+        try (InputStream in = getConnection.getInputStream()) {
+            assertArrayEquals("Should send the whole image",expected, in.readAllBytes());
+        }
         getConnection.disconnect();
     }
     /*
@@ -161,6 +255,22 @@ public class HttpServerTests {
         assertEquals("Should return application/json",responseHeader,"application/json");
         getConnection.disconnect();
     }
+    /*
+     *Testing POST with commas and escaped quotes inside the description
+     */
+    @Test
+    public void testSaveTaskWithComma() throws Exception {
+        String jsonPayload = "{\"name\":\"Comma Task\",\"description\":\"milk, eggs: \\\"fresh\\\"\"}";
+        HttpURLConnection connection = urlConnection.createPostConnection("/app/saveTask", jsonPayload);
+        assertEquals("Should return 200 OK",200, connection.getResponseCode());
+        String responseBody = urlConnection.readResponse(connection);
+        assertTrue("Task should keep its description",responseBody.contains("\"description\":\"milk, eggs: \\\"fresh\\\"\""));
+        connection.disconnect();
+
+        connection = urlConnection.createPostConnection("/app/saveTask", "{\"name\":\"Broken\"");
+        assertEquals("Should return 400 Bad Request",400, connection.getResponseCode());
+        connection.disconnect();
+    }
     /*
      *Get tasks by filter name successfully
      *
@@ -214,6 +324,108 @@ public class HttpServerTests {
 
         connection.disconnect();
     }
+    /*
+     *Path parameters are read from the route, static segments take precedence over parameters
+     */
+    @Test
+    public void testPathParameters() throws Exception {
+        HttpURLConnection connection = urlConnection.createPostConnection("/app/saveTask", "{\"name\":\"By id\",\"description\":\"d\"}");
+        String saved = urlConnection.readResponse(connection);
+        connection.disconnect();
+        String id = saved.substring(saved.indexOf("\"id\":") + 5, saved.indexOf(','));
+
+        connection = urlConnection.createGetConnection("/app/tasks/" + id);
+        assertEquals("Should return 200 OK",200, connection.getResponseCode());
+        assertTrue("Should return the task",urlConnection.readResponse(connection).contains("\"name\":\"By id\""));
+        connection.disconnect();
+
+        connection = urlConnection.createGetConnection("/app/route123/x/items/y/");
+        assertEquals("route123:x:y", urlConnection.readResponse(connection));
+        connection.disconnect();
+        connection = urlConnection.createGetConnection("/app/route7/fixed/items/z");
+        assertEquals("fixed:z", urlConnection.readResponse(connection));
+        connection.disconnect();
+        connection = urlConnection.createGetConnection("/app/route7/other/items/z");
+        assertEquals("route7:other:z", urlConnection.readResponse(connection));
+        connection.disconnect();
+
+        //a route with more parameters than any other, registered while the server runs
+        get("/deep/{a}/{b}/{c}/{d}", (req, res) -> res.body(req.getParam("a") + req.getParam("b") + req.getParam("c") + req.getParam("d")));
+        connection = urlConnection.createGetConnection("/app/deep/1/2/3/4");
+        assertEquals("Should resolve every parameter","1234", urlConnection.readResponse(connection));
+        connection.disconnect();
+    }
+    /*
+     *Unknown routes return 404, known routes with another method return 405 with the allowed methods
+     */
+    @Test
+    public void testNotFoundAndAllow() throws Exception {
+        HttpURLConnection connection = urlConnection.createGetConnection("/app/prueba");
+        assertEquals("Should return 404 Not Found",404, connection.getResponseCode());
+        connection.disconnect();
+
+        connection = urlConnection.createConnection("/app/route7/a/items/b", "PUT");
+        assertEquals("Should return 405 Method Not Allowed",405, connection.getResponseCode());
+        assertEquals("GET, DELETE", connection.getHeaderField("Allow"));
+        connection.disconnect();
+
+        connection = urlConnection.createConnection("/app/route7/a/items/b", "DELETE");
+        assertEquals("Should return 200 OK",200, connection.getResponseCode());
+        connection.disconnect();
+    }
+    /*
+     *Pages follow the cursor of the previous page, the last page does not have a next cursor
+     */
+    @Test
+    public void testPagination() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            HttpURLConnection post = urlConnection.createPostConnection("/app/saveTask", "{\"name\":\"Paged " + i + "\",\"description\":\"p\"}");
+            post.getResponseCode();
+            post.disconnect();
+        }
+        List<String> names = new ArrayList<>();
+        String cursor = "0";
+        int pages = 0;
+        while (cursor != null) {
+            HttpURLConnection connection = urlConnection.createGetConnection("/app/tasks?name=paged&limit=2&cursor=" + cursor);
+            assertEquals("Should return 200 OK",200, connection.getResponseCode());
+            Map<?, ?> page = (Map<?, ?>) JsonReader.read(urlConnection.readResponse(connection).getBytes(StandardCharsets.UTF_8));
+            connection.disconnect();
+            for (Object task : (List<?>) page.get("tasks")) names.add((String) ((Map<?, ?>) task).get("name"));
+            Object next = page.get("nextCursor");
+            cursor = next == null ? null : next.toString();
+            pages++;
+        }
+        assertEquals(List.of("Paged 0", "Paged 1", "Paged 2", "Paged 3", "Paged 4"), names);
+        assertEquals("Should take three pages",3, pages);
+
+        HttpURLConnection invalid = urlConnection.createGetConnection("/app/tasks?name=All&limit=0");
+        assertEquals("Should return 400 Bad Request",400, invalid.getResponseCode());
+        invalid.disconnect();
+    }
+    /*
+     *In NDJSON mode every task is written on its own line
+     */
+    @Test
+    public void testNdjson() throws Exception {
+        HttpURLConnection post = urlConnection.createPostConnection("/app/saveTask", "{\"name\":\"Lines task\",\"description\":\"l\"}");
+        post.getResponseCode();
+        post.disconnect();
+        HttpURLConnection connection = urlConnection.createGetConnection("/app/tasks?name=All&format=ndjson");
+        assertEquals("Should return 200 OK",200, connection.getResponseCode());
+        assertEquals("application/x-ndjson", connection.getHeaderField("Content-Type"));
+        String[] lines;
+        try (InputStream in = connection.getInputStream()) {
+            lines = new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\n");
+        }
+        connection.disconnect();
+        assertEquals("Should write one line per task",getTaskManager().size(), lines.length);
+        for (String line : lines) assertTrue("Each line should be a task",JsonReader.read(line.getBytes(StandardCharsets.UTF_8)) instanceof Map);
+
+        HttpURLConnection invalid = urlConnection.createGetConnection("/app/tasks?name=All&format=ndjson&cursor=-1");
+        assertEquals("Should return 400 Bad Request before writing any line",400, invalid.getResponseCode());
+        invalid.disconnect();
+    }
     /*
     *Testing the /json lambda
     * In this case we specify the content-type,
@@ -296,4 +508,421 @@ public class HttpServerTests {
         assertEquals("Should return text/plain",responseHeader,"text/plain");
     }
 
+    /*
+     *Testing that a slow request does not block the other clients,
+     * while /slow is being processed another request should be answered right away
+     */
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        Thread slowClient = new Thread(() -> {
+            try {
+                HttpURLConnection slowConnection = urlConnection.createGetConnection("/app/slow");
+                slowConnection.getResponseCode();
+                slowConnection.disconnect();
+            } catch (Exception ignored) {}
+        });
+        slowClient.start();
+        Thread.sleep(100);
+        long begin = System.currentTimeMillis();
+        HttpURLConnection getConnection = urlConnection.createGetConnection("/app/status");
+        int responseCode = getConnection.getResponseCode();
+        long elapsed = System.currentTimeMillis() - begin;
+        assertEquals("Should return 200 OK",200, responseCode);
+        assertTrue("Should not wait for the slow request",elapsed < 800);
+        getConnection.disconnect();
+        slowClient.join();
+    }
+
+    /*
+     *Testing persistent connections, two pipelined requests are written at once on the same socket
+     * and both responses should come back in order with their Content-Length
+     */
+    @Test
+    public void testPipelinedRequests() throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            String requests = "GET /app/square?n=3 HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /app/square?n=4 HTTP/1.1\r\nHost: localhost\r\n\r\n";
+            socket.getOutputStream().write(requests.getBytes());
+            socket.getOutputStream().flush();
+            InputStream in = socket.getInputStream();
+            Map<String, String> first = urlConnection.readRawResponse(in);
+            assertEquals("Should keep the connection open","keep-alive", first.get("connection"));
+            assertEquals("Should answer the first request first","Square: 9", first.get("body"));
+            Map<String, String> second = urlConnection.readRawResponse(in);
+            assertEquals("Should answer the second request on the same connection","Square: 16", second.get("body"));
+        }
+    }
+
+    /*
+     *Static files are read from disk once, the following requests are served from the cache
+     */
+    @Test
+    public void testStaticFileCache() throws Exception {
+        HttpURLConnection first = urlConnection.createGetConnection("/styles/style.css");
+        assertEquals("Should return 200 OK",200, first.getResponseCode());
+        first.disconnect();
+        long hits = getStaticCache().getHits();
+        HttpURLConnection second = urlConnection.createGetConnection("/styles/style.css");
+        assertEquals("Should return 200 OK",200, second.getResponseCode());
+        second.disconnect();
+        assertTrue("Should be served from the cache",getStaticCache().getHits() > hits);
+    }
+
+    /*
+     *Static files are sent with their validators, asking again with them should return
+     * 304 Not Modified without downloading the file again
+     */
+    @Test
+    public void testConditionalGet() throws Exception {
+        HttpURLConnection first = urlConnection.createGetConnection("/scripts/script.js");
+        assertEquals("Should return 200 OK",200, first.getResponseCode());
+        String etag = first.getHeaderField("ETag");
+        String lastModified = first.getHeaderField("Last-Modified");
+        assertNotNull("Should send an ETag",etag);
+        assertNotNull("Should send Last-Modified",lastModified);
+        assertEquals("Should send the cache control of js files","public, max-age=3600", first.getHeaderField("Cache-Control"));
+        urlConnection.readResponse(first);
+        first.disconnect();
+
+        HttpURLConnection byEtag = urlConnection.createGetConnection("/scripts/script.js");
+        byEtag.setRequestProperty("If-None-Match", etag);
+        assertEquals("Should return 304 Not Modified",304, byEtag.getResponseCode());
+        assertEquals("Should keep the same ETag",etag, byEtag.getHeaderField("ETag"));
+        byEtag.disconnect();
+
+        HttpURLConnection byDate = urlConnection.createGetConnection("/scripts/script.js");
+        byDate.setRequestProperty("If-Modified-Since", lastModified);
+        assertEquals("Should return 304 Not Modified",304, byDate.getResponseCode());
+        byDate.disconnect();
+
+        HttpURLConnection changed = urlConnection.createGetConnection("/scripts/script.js");
+        changed.setRequestProperty("If-None-Match", "\"other\"");
+        assertEquals("Should return 200 OK for another version",200, changed.getResponseCode());
+        changed.disconnect();
+    }
+
+    /*
+     *When the client accepts gzip, static files are sent in their precompressed version
+     * and long dynamic bodies are compressed
+     */
+    @Test
+    public void testCompression() throws Exception {
+        HttpURLConnection staticFile = urlConnection.createGetConnection("/scripts/script.js");
+        staticFile.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        assertEquals("Should return 200 OK",200, staticFile.getResponseCode());
+        assertEquals("Should be compressed with gzip","gzip", staticFile.getHeaderField("Content-Encoding"));
+        assertEquals("Should vary by encoding","Accept-Encoding", staticFile.getHeaderField("Vary"));
+        byte[] expected = Files.readAllBytes(Path.of("src/main/resources/scripts/script.js"));
+        try (InputStream in = new GZIPInputStream(staticFile.getInputStream())) {
+            assertArrayEquals("Should decompress to the file",expected, in.readAllBytes());
+        }
+        staticFile.disconnect();
+
+        //static files are only precompressed with gzip, a deflate client receives the identity with its own ETag
+        HttpURLConnection plain = urlConnection.createGetConnection("/scripts/script.js");
+        String identityTag = plain.getHeaderField("ETag");
+        plain.disconnect();
+        HttpURLConnection deflateOnly = urlConnection.createGetConnection("/scripts/script.js");
+        deflateOnly.setRequestProperty("Accept-Encoding", "deflate");
+        assertEquals("Should return 200 OK",200, deflateOnly.getResponseCode());
+        assertNull("Should not compress a static file per request",deflateOnly.getHeaderField("Content-Encoding"));
+        assertEquals("Should keep the ETag of the identity",identityTag, deflateOnly.getHeaderField("ETag"));
+        assertNotEquals("Should not share the ETag of the gzip version",staticFile.getHeaderField("ETag"), identityTag);
+        try (InputStream in = deflateOnly.getInputStream()) {
+            assertArrayEquals("Should send the file as it is",expected, in.readAllBytes());
+        }
+        deflateOnly.disconnect();
+
+        HttpURLConnection dynamic = urlConnection.createGetConnection("/app/repeat");
+        dynamic.setRequestProperty("Accept-Encoding", "deflate");
+        assertEquals("Should return 200 OK",200, dynamic.getResponseCode());
+        assertEquals("Should be compressed with deflate","deflate", dynamic.getHeaderField("Content-Encoding"));
+        assertTrue("Should be much smaller than the body",dynamic.getContentLength() < 1000);
+        try (InputStream in = new InflaterInputStream(dynamic.getInputStream())) {
+            assertEquals("Should decompress to the body","0123456789,".repeat(1000), new String(in.readAllBytes()));
+        }
+        dynamic.disconnect();
+
+        HttpURLConnection identity = urlConnection.createGetConnection("/app/repeat");
+        assertNull("Should not compress without Accept-Encoding",identity.getHeaderField("Content-Encoding"));
+        identity.disconnect();
+
+        HttpURLConnection refused = urlConnection.createGetConnection("/app/repeat");
+        refused.setRequestProperty("Accept-Encoding", "gzip;q=0, *");
+        assertEquals("Should return 200 OK",200, refused.getResponseCode());
+        assertEquals("Should not use gzip when it is refused, even with *","deflate", refused.getHeaderField("Content-Encoding"));
+        refused.disconnect();
+
+        HttpURLConnection noneLeft = urlConnection.createGetConnection("/app/repeat");
+        noneLeft.setRequestProperty("Accept-Encoding", "gzip;q=0, deflate;q=0, *");
+        assertNull("Should not compress when every coding is refused",noneLeft.getHeaderField("Content-Encoding"));
+        noneLeft.disconnect();
+    }
+
+    /*
+     *A JSON body bigger than the buffer is sent while it is serialized,
+     * without Content-Length and in chunks
+     */
+    @Test
+    public void testStreamedJson() throws Exception {
+        HttpURLConnection getConnection = urlConnection.createGetConnection("/app/manyTasks");
+        assertEquals("Should return 200 OK",200, getConnection.getResponseCode());
+        assertEquals("Should return application/json","application/json", getConnection.getHeaderField("Content-Type"));
+        assertEquals("Should be chunked","chunked", getConnection.getHeaderField("Transfer-Encoding"));
+        String responseBody = urlConnection.readResponse(getConnection);
+        assertTrue("Should contain the first task",responseBody.startsWith("[{\"id\":1,\"name\":\"Task 1\""));
+        assertTrue("Should contain the last task",responseBody.endsWith("\"description\":\"Description 5000\"}]"));
+        assertEquals("Should contain every task",5000, responseBody.split("\\},\\{").length);
+        getConnection.disconnect();
+    }
+
+    /*
+     *A streamed body is sent in chunks with its trailers, and the connection is reused
+     * for the next pipelined request
+     */
+    @Test
+    public void testChunkedStream() throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            String requests = "GET /app/countdown HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /app/square?n=5 HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n";
+            socket.getOutputStream().write(requests.getBytes());
+            socket.getOutputStream().flush();
+            InputStream in = socket.getInputStream();
+            Map<String, String> stream = urlConnection.readRawResponse(in);
+            assertEquals("Should be chunked","chunked", stream.get("transfer-encoding"));
+            assertNull("Should not have Content-Length",stream.get("content-length"));
+            assertEquals("Should keep the connection open","keep-alive", stream.get("connection"));
+            assertEquals("Should contain every chunk","3\n2\n1\n", stream.get("body"));
+            assertEquals("Should send the trailer","6", stream.get("x-sum"));
+            Map<String, String> next = urlConnection.readRawResponse(in);
+            assertEquals("Should answer the next request on the same connection","Square: 25", next.get("body"));
+        }
+    }
+
+    /*
+     *HTTP/1.0 clients do not understand chunks, the body ends when the connection is closed
+     */
+    @Test
+    public void testStreamHttp10() throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write("GET /app/countdown HTTP/1.0\r\nConnection: keep-alive\r\n\r\n".getBytes());
+            socket.getOutputStream().flush();
+            String response = new String(socket.getInputStream().readAllBytes());
+            assertTrue("Should close the connection",response.contains("Connection: close"));
+            assertFalse("Should not be chunked",response.contains("Transfer-Encoding"));
+            assertTrue("Should end with the raw body",response.endsWith("\r\n\r\n3\n2\n1\n"));
+        }
+    }
+
+    /*
+     *A streamed body that fails before sending anything is answered with an error
+     */
+    @Test
+    public void testBrokenStream() throws Exception {
+        HttpURLConnection getConnection = urlConnection.createGetConnection("/app/brokenStream");
+        assertEquals("Should return 500 Internal Server Error",500, getConnection.getResponseCode());
+        getConnection.disconnect();
+    }
+
+    /*
+     *A JSON body that fails while it is serialized is answered with an error and the connection stays usable
+     */
+    @Test
+    public void testBrokenEntity() throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(("GET /app/brokenEntity HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /app/square?n=3 HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes());
+            socket.getOutputStream().flush();
+            InputStream in = socket.getInputStream();
+            assertTrue("Should return 500 Internal Server Error",urlConnection.readRawResponse(in).get("status").contains(" 500 "));
+            assertEquals("Should answer the next request","Square: 9", urlConnection.readRawResponse(in).get("body"));
+        }
+    }
+
+    /*
+     *The body is read by its length in bytes, a UTF-8 body is decoded whole
+     * and the next pipelined request starts right after it
+     */
+    @Test
+    public void testUtf8Body() throws Exception {
+        byte[] json = "{\"name\":\"Ñandú 😀\",\"description\":\"café\"}".getBytes(StandardCharsets.UTF_8);
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(("POST /app/saveTask HTTP/1.1\r\nHost: localhost\r\nCONTENT-TYPE: application/json\r\n"
+                    + "Content-Length: " + json.length + "\r\n\r\n").getBytes());
+            socket.getOutputStream().write(json);
+            socket.getOutputStream().write("GET /app/square?n=6 HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes());
+            socket.getOutputStream().flush();
+            InputStream in = socket.getInputStream();
+            Map<String, String> saved = urlConnection.readRawResponse(in);
+            assertTrue("Should keep the non-ASCII characters",saved.get("body").contains("\"name\":\"Ñandú 😀\",\"description\":\"café\""));
+            assertEquals("Should answer the next request","Square: 36", urlConnection.readRawResponse(in).get("body"));
+        }
+    }
+
+    /*
+     *Requests above the size limits are rejected with their status and the connection is closed
+     */
+    @Test
+    public void testRequestLimits() throws Exception {
+        assertEquals("Should return 414 URI Too Long","HTTP/1.1 414 URI Too Long",
+                rawStatus("GET /app/square?n=" + "1".repeat(10000) + " HTTP/1.1\r\n\r\n"));
+        assertEquals("Should return 431 Request Header Fields Too Large","HTTP/1.1 431 Request Header Fields Too Large",
+                rawStatus("GET /app/square?n=2 HTTP/1.1\r\n" + "X-Filler: abcdefghijklmnopqrstuvwxyz\r\n".repeat(1000)));
+        assertEquals("Should return 413 Content Too Large","HTTP/1.1 413 Content Too Large",
+                rawStatus("POST /app/saveTask HTTP/1.1\r\nContent-Length: 2000000\r\n\r\n"));
+        assertEquals("Should return 400 Bad Request","HTTP/1.1 400 Bad Request",
+                rawStatus("POST /app/saveTask HTTP/1.1\r\nContent-Length: ten\r\n\r\n"));
+        assertEquals("Should return 400 Bad Request","HTTP/1.1 400 Bad Request",
+                rawStatus("GET /app/square?n=2\r\n\r\n"));
+    }
+
+    /**
+     * Sends raw bytes and reads the status line of the answer, checking that the server closes the connection.
+     */
+    private String rawStatus(String request) throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(request.getBytes());
+            socket.getOutputStream().flush();
+            Map<String, String> response = urlConnection.readRawResponse(socket.getInputStream());
+            assertEquals("Should close the connection","close", response.get("connection"));
+            return response.get("status");
+        }
+    }
+
+    /*
+     *Query parameters are percent-decoded and can be repeated, header names are matched in any case
+     */
+    @Test
+    public void testRequestView() throws Exception {
+        HttpURLConnection getConnection = urlConnection.createGetConnection(
+                "/app/echo?q=caf%C3%A9+con+leche%21&tag=a&tag=b%26c&empty=&t%61g=d");
+        getConnection.setRequestProperty("x-custom", "Value");
+        assertEquals("Should return 200 OK",200, getConnection.getResponseCode());
+        assertEquals("Should decode the values","café con leche!|[a, b&c, d]|null|null|Value", urlConnection.readResponse(getConnection));
+        getConnection.disconnect();
+    }
+
+    /*
+     *Every request served is written to the access log once it is enabled
+     */
+    @Test
+    public void testAccessLog() throws Exception {
+        Path file = Files.createTempDirectory("access").resolve("access.log");
+        accessLog(file, AccessLog.Level.ALL, 1.0, 1024 * 1024, 1);
+        HttpURLConnection getConnection = urlConnection.createGetConnection("/app/square?n=7");
+        assertEquals("Should return 200 OK",200, getConnection.getResponseCode());
+        getConnection.disconnect();
+        //the request is logged right after its response is sent
+        for (int i = 0; i < 100 && getAccessLog().getWritten() == 0; i++) Thread.sleep(20);
+        //disabling the log closes it, writing the lines that are waiting
+        accessLog(file, AccessLog.Level.OFF, 1.0, 1024 * 1024, 1);
+        String log = Files.readString(file);
+        assertTrue("Should log the request",log.contains(" method=GET path=/app/square?n=7 status=200 bytes=10 "));
+    }
+
+    @Test
+    /*
+    * Test that the status line and the headers, pre-encoded or not, are written with the body in one response
+     */
+    public void testResponseHead() throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            String requests = "GET /app/created HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /app/missing HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n";
+            socket.getOutputStream().write(requests.getBytes());
+            socket.getOutputStream().flush();
+            InputStream in = socket.getInputStream();
+            Map<String, String> created = urlConnection.readRawResponse(in);
+            assertEquals("Should return 201 Created","HTTP/1.1 201 Created", created.get("status"));
+            assertEquals("Should encode the header in UTF-8","año 2024", created.get("x-label"));
+            assertEquals("Should return text/plain","text/plain", created.get("content-type"));
+            assertEquals("Should return the length","7", created.get("content-length"));
+            assertEquals("Should return the body","created", created.get("body"));
+            Map<String, String> missing = urlConnection.readRawResponse(in);
+            assertEquals("Should return 404 Not Found","HTTP/1.1 404 Not Found", missing.get("status"));
+            assertEquals("Should close the connection","close", missing.get("connection"));
+        }
+    }
+    @Test
+    /*
+    * Test that a request whose head does not arrive in time is answered with 408 Request Timeout
+     */
+    public void testReadTimeout() throws Exception {
+        timeouts(300, 30000, 30000, 5000);
+        try {
+            long started = System.currentTimeMillis();
+            assertEquals("Should return 408 Request Timeout","HTTP/1.1 408 Request Timeout",
+                    rawStatus("GET /app/square?n=2 HTTP/1.1\r\nHost: localhost\r\n"));
+            assertTrue("Should not wait for the idle timeout",System.currentTimeMillis() - started < 3000);
+        } finally {
+            timeouts(10000, 30000, 30000, 5000);
+        }
+    }
+    @Test
+    /*
+    * Test that a request that finds every slot taken is shed at once with 503 and Retry-After
+     */
+    public void testLoadShedding() throws Exception {
+        admission(1, 0, 0, 2);
+        Thread slowClient = new Thread(() -> {
+            try {
+                HttpURLConnection slowConnection = urlConnection.createGetConnection("/app/slow");
+                slowConnection.getResponseCode();
+                slowConnection.disconnect();
+            } catch (Exception ignored) {}
+        });
+        try {
+            long shed = getMetrics().getShedRequests();
+            slowClient.start();
+            //the slow request takes the only slot
+            Thread.sleep(300);
+            try (Socket socket = new Socket("localhost", port)) {
+                socket.setSoTimeout(5000);
+                long started = System.currentTimeMillis();
+                socket.getOutputStream().write("GET /app/square?n=2 HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes());
+                socket.getOutputStream().flush();
+                Map<String, String> response = urlConnection.readRawResponse(socket.getInputStream());
+                assertEquals("Should return 503 Service Unavailable","HTTP/1.1 503 Service Unavailable", response.get("status"));
+                assertEquals("Should tell when to retry","2", response.get("retry-after"));
+                assertEquals("Should close the connection","close", response.get("connection"));
+                assertTrue("Should not wait for the slow request",System.currentTimeMillis() - started < 500);
+            }
+            assertEquals("Should count the request shed",shed + 1, getMetrics().getShedRequests());
+            slowClient.join();
+            HttpURLConnection getConnection = urlConnection.createGetConnection("/app/square?n=2");
+            assertEquals("Should admit requests once the slot is free",200, getConnection.getResponseCode());
+            getConnection.disconnect();
+        } finally {
+            admission(0, 0, 0, 1);
+        }
+    }
+    @Test
+    /*
+    * Test that the requests are counted in the histogram of their route and exported on /metrics
+     */
+    public void testMetrics() throws Exception {
+        long before = getMetrics().getCount("/square", "GET", 200);
+        HttpURLConnection getConnection = urlConnection.createGetConnection("/app/square?n=3");
+        assertEquals("Should return 200 OK",200, getConnection.getResponseCode());
+        getConnection.disconnect();
+        //the request is recorded right after its response is sent
+        for (int i = 0; i < 100 && getMetrics().getCount("/square", "GET", 200) == before; i++) Thread.sleep(20);
+        assertEquals("Should count the request in its route",before + 1, getMetrics().getCount("/square", "GET", 200));
+        HttpURLConnection metricsConnection = urlConnection.createGetConnection("/metrics");
+        assertEquals("Should return 200 OK",200, metricsConnection.getResponseCode());
+        assertTrue("Should use the Prometheus text format",metricsConnection.getHeaderField("Content-Type").startsWith("text/plain; version=0.0.4"));
+        String metrics = urlConnection.readResponse(metricsConnection);
+        assertTrue("Should export the histogram of the route",metrics.contains("http_request_duration_seconds_count{route=\"/square\",method=\"GET\",status=\"200\"} "));
+        assertTrue("Should export the infinite bucket",metrics.contains("http_request_duration_seconds_bucket{route=\"/square\",method=\"GET\",status=\"200\",le=\"+Inf\"} "));
+        assertTrue("Should export the stages",metrics.contains("http_stage_duration_seconds_count{stage=\"parse\"} "));
+        assertTrue("Should count the open connections",metrics.contains("http_active_connections "));
+        assertTrue("Should count the bytes sent",metrics.contains("http_sent_bytes_total "));
+    }
+
 }
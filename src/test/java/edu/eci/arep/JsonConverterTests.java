@@ -0,0 +1,80 @@
+package edu.eci.arep;
+
+import edu.eci.arep.classes.Task;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import static edu.eci.arep.helpers.JsonConverter.toJson;
+import static edu.eci.arep.helpers.JsonConverter.writeJson;
+import static org.junit.Assert.*;
+
+public class JsonConverterTests {
+    /*
+     *Objects are serialized by their fields, in declaration order
+     */
+    @Test
+    public void testObject() {
+        Task task = new Task("Read", "Chapter 1", 7);
+        assertEquals("{\"id\":7,\"name\":\"Read\",\"description\":\"Chapter 1\"}", toJson(task));
+    }
+    /*
+     *Quotes, backslashes and control characters are escaped, other characters are encoded in UTF-8
+     */
+    @Test
+    public void testEscaping() {
+        assertEquals("\"a\\\"b\\\\c\\nd\\te\\u0001\"", toJson("a\"b\\c\nd\te\u0001"));
+        assertEquals("\"ñandú 😀\"", toJson("ñandú 😀"));
+    }
+    /*
+     *Lists become arrays, and values bigger than the buffer are written in several blocks
+     */
+    @Test
+    public void testLargeList() throws Exception {
+        String text = "x".repeat(40000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeJson(List.of(1, text, 2.5), out);
+        assertEquals("[1,\"" + text + "\",2.5]", out.toString(StandardCharsets.UTF_8));
+    }
+    record Point(int x, long y, double weight, boolean visible, String label) {}
+    record Reading(float value, Float boxed) {}
+    /*
+     *Records are serialized by their components, primitives keep their JSON form
+     */
+    @Test
+    public void testRecord() {
+        assertEquals("{\"x\":-12,\"y\":9223372036854775807,\"weight\":0.5,\"visible\":true,\"label\":null}",
+                toJson(new Point(-12, Long.MAX_VALUE, 0.5, true, null)));
+        assertEquals("Floats should keep their short form","{\"value\":0.1,\"boxed\":2.3}", toJson(new Reading(0.1f, 2.3f)));
+        assertEquals("[0.1,null]", toJson(List.of(0.1f, Float.NaN)));
+    }
+    /*
+     *The plan of a class is reused, every object of a list is serialized the same way
+     */
+    @Test
+    public void testListOfObjects() {
+        List<Task> tasks = List.of(new Task("a", "b", 1), new Task("c", "d", 1000000));
+        assertEquals("[{\"id\":1,\"name\":\"a\",\"description\":\"b\"},{\"id\":1000000,\"name\":\"c\",\"description\":\"d\"}]",
+                toJson(tasks));
+    }
+    /*
+     *Primitive arrays and streams become arrays without boxing, every digit count is written correctly
+     */
+    @Test
+    public void testPrimitives() {
+        assertEquals("[0,9,10,99,100,-1,-12345,2147483647,-2147483648]",
+                toJson(new int[]{0, 9, 10, 99, 100, -1, -12345, Integer.MAX_VALUE, Integer.MIN_VALUE}));
+        assertEquals("[1000000000000,9223372036854775807,-9223372036854775808]",
+                toJson(new long[]{1000000000000L, Long.MAX_VALUE, Long.MIN_VALUE}));
+        assertEquals("[0.5,null]", toJson(new double[]{0.5, Double.NaN}));
+        assertEquals("[1,2,3,4,5]", toJson(IntStream.rangeClosed(1, 5)));
+        assertEquals("[]", toJson(IntStream.range(0, 0)));
+        assertEquals("[10000000000,10000000001]", toJson(LongStream.range(10000000000L, 10000000002L)));
+        assertEquals("[1.5,2.0]", toJson(DoubleStream.of(1.5, 2)));
+    }
+}
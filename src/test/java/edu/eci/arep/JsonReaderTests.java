@@ -0,0 +1,115 @@
+package edu.eci.arep;
+
+import edu.eci.arep.classes.Task;
+import edu.eci.arep.helpers.JsonException;
+import edu.eci.arep.helpers.JsonReader;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class JsonReaderTests {
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+    /*
+     *Objects are bound to the fields of a class, commas and escapes inside strings are kept
+     */
+    @Test
+    public void testBindTask() {
+        Task task = JsonReader.read(bytes("{\"name\":\"Buy\",\"description\":\"milk, eggs: \\\"fresh\\\" \\u00f1\",\"extra\":[1,{\"a\":null}]}"), Task.class);
+        assertEquals("Buy", task.getName());
+        assertEquals("milk, eggs: \"fresh\" ñ", task.getDescription());
+        assertEquals(0, task.getId());
+    }
+    record Point(int x, long y, double weight, boolean visible, String label) {}
+    /*
+     *Records are built with their canonical constructor, missing primitives take their default value
+     */
+    @Test
+    public void testBindRecord() {
+        Point point = JsonReader.read(bytes(" {\"label\":\"p\",\"x\":-3,\"weight\":1.5e1} "), Point.class);
+        assertEquals(new Point(-3, 0, 15.0, false, "p"), point);
+    }
+    record Narrow(float ratio, short count, byte level, char grade, Integer total) {}
+    /*
+     *Narrow numbers and characters are bound with range checks, values that do not fit are malformed JSON
+     */
+    @Test
+    public void testBindNarrowTypes() {
+        Narrow narrow = JsonReader.read(bytes("{\"ratio\":0.1,\"count\":-32768,\"level\":127,\"grade\":\"\u00f1\",\"total\":2147483647}"), Narrow.class);
+        assertEquals(new Narrow(0.1f, (short) -32768, (byte) 127, 'ñ', Integer.MAX_VALUE), narrow);
+        for (String json : new String[]{"{\"total\":2147483648}", "{\"count\":32768}", "{\"level\":-129}",
+                "{\"ratio\":1e39}", "{\"grade\":\"ab\"}", "{\"grade\":\"\"}", "{\"level\":1.5}"}) {
+            try {
+                JsonReader.read(bytes(json), Narrow.class);
+                fail("Should reject " + json);
+            } catch (JsonException e) {
+                assertFalse("Should not be a limit error", e.isLimitExceeded());
+            }
+        }
+    }
+    /*
+     *Integers up to the limits of a long are read as longs, bigger ones as doubles
+     */
+    @Test
+    public void testLongBoundaries() {
+        assertEquals(Long.valueOf(1000000000000000000L), JsonReader.read(bytes("1000000000000000000"), long.class));
+        assertEquals(Long.valueOf(Long.MAX_VALUE), JsonReader.read(bytes("9223372036854775807"), long.class));
+        assertEquals(Long.valueOf(Long.MIN_VALUE), JsonReader.read(bytes("-9223372036854775808"), Long.class));
+        assertEquals(Long.MIN_VALUE, JsonReader.read(bytes("-9223372036854775808")));
+        assertEquals(9.223372036854775808E18, JsonReader.read(bytes("9223372036854775808")));
+        assertEquals(-9.223372036854775809E18, JsonReader.read(bytes("-9223372036854775809")));
+        for (String json : new String[]{"9223372036854775808", "-9223372036854775809", "12345678901234567890"}) {
+            try {
+                JsonReader.read(bytes(json), long.class);
+                fail("Should reject " + json);
+            } catch (JsonException e) {
+                assertFalse("Should not be a limit error", e.isLimitExceeded());
+            }
+        }
+    }
+    /*
+     *Without a class the values are maps, lists, strings, longs, doubles and booleans
+     */
+    @Test
+    public void testGenericValues() {
+        Object value = JsonReader.read(bytes("{\"list\":[1,2.5,true,\"ñandú\"],\"empty\":{}}"));
+        assertEquals(Map.of("list", List.of(1L, 2.5, true, "ñandú"), "empty", Map.of()), value);
+    }
+    /*
+     *Malformed texts are rejected, but they are not limit errors
+     */
+    @Test
+    public void testMalformed() {
+        for (String json : new String[]{"{\"name\":\"a\"", "{\"name\" \"a\"}", "{\"name\":\"a\"} x", "{name:1}", "[1,]"}) {
+            try {
+                JsonReader.read(bytes(json));
+                fail("Should reject " + json);
+            } catch (JsonException e) {
+                assertFalse("Should not be a limit error", e.isLimitExceeded());
+            }
+        }
+    }
+    /*
+     *Texts that are too big or too deep are rejected as limit errors
+     */
+    @Test
+    public void testLimits() {
+        try {
+            new JsonReader(new byte[100], 0, 100, 50, 4);
+            fail("Should reject a text bigger than the limit");
+        } catch (JsonException e) {
+            assertTrue(e.isLimitExceeded());
+        }
+        try {
+            JsonReader.read(bytes("[".repeat(1000) + "]".repeat(1000)));
+            fail("Should reject a text nested too deeply");
+        } catch (JsonException e) {
+            assertTrue(e.isLimitExceeded());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package edu.eci.arep;
+
+import edu.eci.arep.connection.LoadGenerator;
+import org.junit.*;
+
+import java.time.Duration;
+import java.util.List;
+
+import static edu.eci.arep.httpserver.HttpServer.*;
+import static org.junit.Assert.*;
+
+public class LoadGeneratorTests {
+    private static Thread serverThread;
+    private static final int port = 35003;
+    @BeforeClass
+    /*
+     *Starts the server with a route of each kind of the mix
+     */
+    public static void setUp() throws Exception {
+        staticfiles("/resources");
+        get("/load", (req, res) -> res.body("load " + req.getValues("n")));
+        post("/load", (req, res) -> res.status(201).body(req.getBody()));
+        serverThread = new Thread(() -> {
+            try { start(port); } catch (Exception ignored) {}
+        }, "load-server-test");
+        serverThread.start();
+        LoadGenerator.waitForPort("localhost", port);
+    }
+    @AfterClass
+    public static void tearDown() throws Exception {
+        stop();
+    }
+    /*
+     *A mix written as text is parsed with its methods, paths and weights
+     */
+    @Test
+    public void testParseMix() {
+        List<LoadGenerator.Target> mix = LoadGenerator.parseMix("GET /=1, GET /app/tasks?name=All=3,POST /app/saveTask=2");
+        assertEquals("Should parse every entry",3, mix.size());
+        assertEquals("Should keep the query of the path","/app/tasks?name=All", mix.get(1).path());
+        assertEquals("Should parse the weight",3, mix.get(1).weight());
+        assertNotNull("Should send a body with POST",mix.get(2).body());
+        assertNull("Should not send a body with GET",mix.get(0).body());
+    }
+    /*
+     *Clients that send back to back measure every response of the mix without errors
+     */
+    @Test
+    public void testClosedLoop() throws Exception {
+        LoadGenerator generator = new LoadGenerator("localhost", port, List.of(
+                new LoadGenerator.Target("GET", "/", null, 1),
+                new LoadGenerator.Target("GET", "/styles/style.css", null, 1),
+                new LoadGenerator.Target("GET", "/app/load?n=1", null, 2),
+                new LoadGenerator.Target("POST", "/app/load", "{\"n\":1}", 1)));
+        LoadGenerator.Report report = generator.closedLoop(4, Duration.ofMillis(100), Duration.ofMillis(500));
+        assertTrue("Should send requests",report.requests() > 0);
+        assertEquals("Should not fail any request",0, report.errors());
+        assertEquals("Should measure every response",report.requests(), report.latencies().length);
+        assertTrue("Should order the percentiles",report.percentile(50) <= report.percentile(99)
+                && report.percentile(99) <= report.percentile(99.9) && report.percentile(99.9) <= report.percentile(100));
+    }
+    /*
+     *A fixed rate sends about the requests due in the duration, measured from when they were due
+     */
+    @Test
+    public void testOpenLoop() throws Exception {
+        LoadGenerator generator = new LoadGenerator("localhost", port, List.of(new LoadGenerator.Target("GET", "/app/load?n=2", null, 1)));
+        LoadGenerator.Report report = generator.openLoop(200, 8, Duration.ofMillis(100), Duration.ofSeconds(1));
+        assertTrue("Should send about the requests due",report.requests() >= 150 && report.requests() <= 210);
+        assertEquals("Should not fail any request",0, report.errors());
+    }
+    /*
+     *Requests answered with errors are counted apart
+     */
+    @Test
+    public void testErrors() throws Exception {
+        LoadGenerator generator = new LoadGenerator("localhost", port, List.of(new LoadGenerator.Target("GET", "/app/missing", null, 1)));
+        LoadGenerator.Report report = generator.closedLoop(1, Duration.ZERO, Duration.ofMillis(200));
+        assertTrue("Should send requests",report.requests() > 0);
+        assertEquals("Should count every 404 as an error",report.requests(), report.errors());
+    }
+}
@@ -0,0 +1,166 @@
+package edu.eci.arep;
+
+import edu.eci.arep.connection.URLConnection;
+import org.junit.*;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static edu.eci.arep.httpserver.HttpServer.*;
+import static org.junit.Assert.*;
+
+public class NioServerTests {
+    private static Thread serverThread;
+    private static final int port = 35002;
+    static URLConnection urlConnection;
+    @BeforeClass
+    /*
+     *Starts the server with the non-blocking engine and two event loops
+     */
+    public static void setUp() throws Exception {
+        //images are sent from disk with transferTo
+        zeroCopyThreshold(4096);
+        staticfiles("/resources");
+        get("/nio", (req, res) -> {
+            String value = req.getValues("name");
+            return res.body("nio " + value);
+        });
+        //bigger than what the loop keeps in memory, so the writer has to wait for the client
+        get("/big", (req, res) -> res.stream(body -> {
+            byte[] line = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcde\n".getBytes();
+            for (int i = 0; i < 16384; i++) body.write(line);
+        }));
+        //JSON body that fails while the worker serializes it
+        get("/brokenEntity", (req, res) -> res.body((Iterable<String>) () -> {
+            throw new IllegalStateException("broken");
+        }));
+        useNio(2);
+        urlConnection = new URLConnection(port);
+        serverThread = new Thread(() -> {
+            try { start(port); } catch (Exception ignored) {}
+        }, "nio-server-test");
+        serverThread.start();
+        Thread.sleep(150);
+    }
+    @AfterClass
+    public static void tearDown() throws Exception {
+        stop();
+        useVirtualThreads();
+        zeroCopyThreshold(256 * 1024);
+    }
+    /*
+     *The lambdas are executed the same way as in the blocking engine
+     */
+    @Test
+    public void testGetService() throws Exception {
+        HttpURLConnection getConnection = urlConnection.createGetConnection("/app/nio?name=test");
+        int responseCode = getConnection.getResponseCode();
+        assertEquals("Should return 200 OK",200, responseCode);
+        assertEquals("Should return the lambda body","nio test", urlConnection.readResponse(getConnection));
+        getConnection.disconnect();
+    }
+    /*
+     *A JSON body that fails while it is serialized is answered with an error and the connection is closed
+     */
+    @Test
+    public void testBrokenEntity() throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write("GET /app/brokenEntity HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes());
+            socket.getOutputStream().flush();
+            InputStream in = socket.getInputStream();
+            assertTrue("Should return 500 Internal Server Error",urlConnection.readRawResponse(in).get("status").contains(" 500 "));
+            assertEquals("Should close the connection",-1, in.read());
+        }
+    }
+    /*
+     *Static files are served from the configured directory,
+     * the image is above the zero-copy threshold and should arrive complete
+     */
+    @Test
+    public void testGetStaticFile() throws Exception {
+        HttpURLConnection getConnection = urlConnection.createGetConnection("/images/logo.png");
+        assertEquals("Should return 200 OK",200, getConnection.getResponseCode());
+        assertEquals("Should return image/png","image/png", getConnection.getHeaderField("Content-Type"));
+        byte[] expected = Files.readAllBytes(Path.of("src/main/resources/images/logo.png"));
+        try (InputStream in = getConnection.getInputStream()) {
+            assertArrayEquals("Should send the whole file",expected, in.readAllBytes());
+        }
+        getConnection.disconnect();
+    }
+    /*
+     *Pipelined requests sent in a single write are answered in order on the same connection,
+     * a request split in several writes is parsed once it is complete
+     */
+    @Test
+    public void testPipelinedRequests() throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            String requests = "GET /app/nio?name=a HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /app/nio?name=b HTTP/1.1\r\nHost: localhost\r\n\r\nGET /app/nio?na";
+            socket.getOutputStream().write(requests.getBytes());
+            socket.getOutputStream().flush();
+            Thread.sleep(50);
+            socket.getOutputStream().write("me=c HTTP/1.1\r\nConnection: close\r\n\r\n".getBytes());
+            InputStream in = socket.getInputStream();
+            assertEquals("nio a", urlConnection.readRawResponse(in).get("body"));
+            assertEquals("nio b", urlConnection.readRawResponse(in).get("body"));
+            Map<String, String> last = urlConnection.readRawResponse(in);
+            assertEquals("nio c", last.get("body"));
+            assertEquals("Should close after the last request","close", last.get("connection"));
+        }
+    }
+    /*
+     *A streamed body of 1 MB arrives complete in chunks, and the connection is reused afterwards
+     */
+    @Test
+    public void testChunkedStream() throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            String requests = "GET /app/big HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /app/nio?name=after HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n";
+            socket.getOutputStream().write(requests.getBytes());
+            socket.getOutputStream().flush();
+            InputStream in = socket.getInputStream();
+            Map<String, String> big = urlConnection.readRawResponse(in);
+            assertEquals("Should be chunked","chunked", big.get("transfer-encoding"));
+            assertEquals("Should send the whole body",1 << 20, big.get("body").length());
+            assertEquals("Should answer the next request on the same connection","nio after", urlConnection.readRawResponse(in).get("body"));
+        }
+    }
+    /*
+     *The requests are parsed with the same limits as in the blocking engine
+     */
+    @Test
+    public void testRequestLimits() throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write("POST /app/nio HTTP/1.1\r\nContent-Length: 2000000\r\n\r\n".getBytes());
+            socket.getOutputStream().flush();
+            Map<String, String> response = urlConnection.readRawResponse(socket.getInputStream());
+            assertEquals("Should return 413 Content Too Large","HTTP/1.1 413 Content Too Large", response.get("status"));
+            assertEquals("Should close the connection","close", response.get("connection"));
+        }
+    }
+    /*
+     *A request whose body does not arrive in time is answered with 408 by the sweep of its loop
+     */
+    @Test
+    public void testReadTimeout() throws Exception {
+        timeouts(10000, 300, 30000, 5000);
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write("POST /app/nio HTTP/1.1\r\nContent-Length: 10\r\n\r\nabc".getBytes());
+            socket.getOutputStream().flush();
+            Map<String, String> response = urlConnection.readRawResponse(socket.getInputStream());
+            assertEquals("Should return 408 Request Timeout","HTTP/1.1 408 Request Timeout", response.get("status"));
+            assertEquals("Should close the connection","close", response.get("connection"));
+        } finally {
+            timeouts(10000, 30000, 30000, 5000);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package edu.eci.arep;
+
+import edu.eci.arep.httpserver.StaticFileCache;
+import org.junit.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class StaticFileCacheTests {
+    private Path root;
+    private StaticFileCache cache;
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("static-cache");
+        Files.writeString(root.resolve("a.html"), "<p>a</p>");
+        Files.writeString(root.resolve("b.css"), "p{}");
+        cache = new StaticFileCache(root, 10, 10, path -> "text/plain");
+    }
+    @After
+    public void tearDown() throws Exception {
+        cache.close();
+        try (Stream<Path> files = Files.walk(root)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+    /*
+     *The second read of a file should be served from memory
+     */
+    @Test
+    public void testHit() throws Exception {
+        cache.get(root.resolve("a.html").toString());
+        cache.get(root.resolve("a.html").toString());
+        assertEquals("Should read the file once",1, cache.getMisses());
+        assertEquals("Should serve the second read from memory",1, cache.getHits());
+    }
+    /*
+     *Files beyond the byte budget evict the least recently used ones
+     */
+    @Test
+    public void testEviction() throws Exception {
+        cache.get(root.resolve("a.html").toString());
+        cache.get(root.resolve("b.css").toString());
+        assertEquals("Should evict the first file",1, cache.getEvictions());
+        assertTrue("Should stay within the budget",cache.getUsedBytes() <= cache.getMaxBytes());
+    }
+    /*
+     *A file modified on disk should be read again
+     */
+    @Test
+    public void testInvalidation() throws Exception {
+        String path = root.resolve("a.html").toString();
+        cache.get(path);
+        Files.writeString(root.resolve("a.html"), "<p>new</p>");
+        long deadline = System.currentTimeMillis() + 5000;
+        String content = "";
+        while (System.currentTimeMillis() < deadline && !content.equals("<p>new</p>")) {
+            Thread.sleep(20);
+            content = new String(cache.get(path).body(), StandardCharsets.UTF_8);
+        }
+        assertEquals("Should serve the new content","<p>new</p>", content);
+    }
+}
@@ -0,0 +1,184 @@
+package edu.eci.arep;
+
+import edu.eci.arep.classes.Task;
+import edu.eci.arep.classes.TaskJournal;
+import edu.eci.arep.classes.TaskManager;
+import edu.eci.arep.classes.TaskPage;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class TaskManagerTests {
+    /*
+     *Tasks added from many threads get unique consecutive ids, while readers always see a complete prefix
+     */
+    @Test
+    public void testConcurrentAdds() throws Exception {
+        TaskManager manager = new TaskManager();
+        int writers = 8;
+        int tasksPerWriter = 5000;
+        AtomicBoolean done = new AtomicBoolean();
+        CountDownLatch ready = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(writers + 2);
+        try {
+            Future<?>[] adds = new Future<?>[writers];
+            for (int w = 0; w < writers; w++) {
+                int writer = w;
+                adds[w] = executor.submit(() -> {
+                    ready.await();
+                    for (int i = 0; i < tasksPerWriter; i++) manager.addTask("w" + writer, "task " + i);
+                    return null;
+                });
+            }
+            Future<?>[] reads = new Future<?>[2];
+            for (int r = 0; r < reads.length; r++) {
+                reads[r] = executor.submit(() -> {
+                    ready.await();
+                    while (!done.get()) {
+                        List<Task> snapshot = manager.getTasks();
+                        for (int i = 0; i < snapshot.size(); i++) {
+                            assertEquals("Snapshot should be a prefix of the tasks", i + 1, snapshot.get(i).getId());
+                        }
+                        int size = snapshot.size();
+                        if (size > 0) assertSame(snapshot.get(size - 1), manager.getTask(size));
+                    }
+                    return null;
+                });
+            }
+            ready.countDown();
+            for (Future<?> add : adds) add.get();
+            done.set(true);
+            for (Future<?> read : reads) read.get();
+        } finally {
+            executor.shutdownNow();
+        }
+        int total = writers * tasksPerWriter;
+        assertEquals("No task should be lost", total, manager.size());
+        List<Task> tasks = manager.getTasks();
+        for (int i = 0; i < total; i++) assertEquals(i + 1, tasks.get(i).getId());
+        assertEquals("Each writer should keep its tasks", tasksPerWriter, manager.getTasksByName("w3").size());
+        assertNull(manager.getTask(total + 1));
+        assertNull(manager.getTask(0));
+    }
+    /*
+     *Searches ignore case, short queries and renamed tasks give the same result as a full scan
+     */
+    @Test
+    public void testSearchByName() {
+        TaskManager manager = new TaskManager();
+        for (int i = 0; i < 3000; i++) manager.addTask((i % 3 == 0 ? "Buy " : "Read ") + "Item" + i, "d");
+        Task renamed = manager.addTask("Cook dinner", "d");
+        assertEquals(1000, manager.getTasksByName("BUY").size());
+        assertEquals(11, manager.getTasksByName("item99").size());
+        assertEquals(3001, manager.getTasksByName("e").size());
+        assertEquals(3001, manager.getTasksByName("").size());
+        assertTrue(manager.getTasksByName("cooking").isEmpty());
+
+        renamed.setName("Buy groceries");
+        assertTrue("Old name should not match", manager.getTasksByName("dinner").isEmpty());
+        List<Task> found = manager.getTasksByName("GROCER");
+        assertEquals(1, found.size());
+        assertSame(renamed, found.get(0));
+        assertEquals(1001, manager.getTasksByName("buy").size());
+        List<Task> ordered = manager.getTasksByName("item1");
+        for (int i = 1; i < ordered.size(); i++) {
+            assertTrue("Results should keep the order of the ids", ordered.get(i - 1).getId() < ordered.get(i).getId());
+        }
+    }
+    /*
+     *Pages are stable while tasks are added, and iterating pages gives every match once
+     */
+    @Test
+    public void testPages() {
+        TaskManager manager = new TaskManager();
+        for (int i = 0; i < 10; i++) manager.addTask(i % 2 == 0 ? "Even " + i : "Odd " + i, "d");
+        TaskPage first = manager.getTasksByName("even", 0, 3);
+        assertEquals(3, first.tasks().size());
+        assertEquals(Integer.valueOf(5), first.nextCursor());
+        manager.addTask("Even late", "d");
+        TaskPage second = manager.getTasksByName("even", first.nextCursor(), 3);
+        assertEquals(List.of(7, 9, 11), second.tasks().stream().map(Task::getId).toList());
+        assertNull("Last page should not have a next cursor", manager.getTasksByName("even", 9, 3).nextCursor());
+        assertEquals(11, manager.getTasks(0, 100).tasks().size());
+        assertEquals(List.of(10, 11), manager.getTasks(9, 5).tasks().stream().map(Task::getId).toList());
+        int count = 0;
+        for (Task task : manager.iterateTasks("ev", 0)) count++;
+        assertEquals(6, count);
+    }
+    /*
+     *Tasks and their changes survive a restart, through the log, the snapshot and a torn last record
+     */
+    @Test
+    public void testPersistence() throws Exception {
+        Path directory = Files.createTempDirectory("tasks");
+        TaskManager manager = TaskManager.open(directory, TaskJournal.Sync.ALWAYS, 5, 1000000);
+        for (int i = 1; i <= 50; i++) manager.addTask("Task " + i, "ñandú, \"" + i + "\"");
+        manager.getTask(7).setName("Renamed");
+        manager.close();
+
+        manager = TaskManager.open(directory, TaskJournal.Sync.BATCHED, 5, 1000000);
+        assertEquals("Should recover every task", 50, manager.size());
+        assertEquals("Renamed", manager.getTask(7).getName());
+        assertEquals("ñandú, \"50\"", manager.getTask(50).getDescription());
+        assertEquals(1, manager.getTasksByName("renamed").size());
+        manager.snapshot();
+        manager.addTask("After snapshot", "a");
+        manager.getTask(3).setDescription("Changed");
+        manager.close();
+        try (Stream<Path> files = Files.list(directory)) {
+            assertTrue("Old logs should be deleted", files.noneMatch(f -> f.getFileName().toString().equals("journal-000000000001.log")));
+        }
+
+        //a crash in the middle of a write leaves a torn record at the end of the last log
+        Path last;
+        try (Stream<Path> files = Files.list(directory)) {
+            last = files.filter(f -> f.getFileName().toString().endsWith(".log")).max(Path::compareTo).orElseThrow();
+        }
+        Files.write(last, new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+        manager = TaskManager.open(directory, TaskJournal.Sync.OS, 5, 1000000);
+        assertEquals(51, manager.size());
+        assertEquals("After snapshot", manager.getTask(51).getName());
+        assertEquals("Changed", manager.getTask(3).getDescription());
+        assertEquals("Renamed", manager.getTask(7).getName());
+        manager.addTask("After crash", "c");
+        manager.close();
+        manager = TaskManager.open(directory, TaskJournal.Sync.ALWAYS, 5, 1000000);
+        assertEquals("After crash", manager.getTask(52).getName());
+        manager.close();
+    }
+    /*
+     *Concurrent adds with the ALWAYS policy share their syncs and none of them is lost
+     */
+    @Test
+    public void testGroupCommit() throws Exception {
+        Path directory = Files.createTempDirectory("tasks");
+        TaskManager manager = TaskManager.open(directory, TaskJournal.Sync.ALWAYS, 5, 3000);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 10000; i++) {
+                int n = i;
+                executor.submit(() -> manager.addTask("Task " + n, "d"));
+            }
+        }
+        //fails if one of the snapshots taken during the adds failed
+        manager.close();
+        try (Stream<Path> files = Files.list(directory)) {
+            assertTrue("Should delete the log files replaced by the last snapshot",
+                    files.filter(file -> file.getFileName().toString().startsWith("journal-")).count() <= 2);
+        }
+        TaskManager recovered = TaskManager.open(directory, TaskJournal.Sync.ALWAYS, 5, 3000);
+        assertEquals(10000, recovered.size());
+        assertEquals(manager.getTask(9999).getName(), recovered.getTask(9999).getName());
+        recovered.close();
+    }
+}
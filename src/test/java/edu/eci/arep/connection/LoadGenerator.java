@@ -0,0 +1,332 @@
+package edu.eci.arep.connection;
+
+import edu.eci.arep.Main;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a server with a mix of requests over persistent connections and reports its throughput and latencies.
+ * Closed loop: a number of clients send their next request as soon as the previous response arrives.
+ * Open loop: requests are due at a fixed rate whether or not the server keeps up, and each latency is
+ * measured from the time the request was due, not from the time it could be sent, so a stalled server
+ * is charged for the requests that queued behind it (coordinated omission).
+ * <p>
+ * It can be run on its own, against the demo application started in the same process:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=edu.eci.arep.connection.LoadGenerator
+ *     -Dload.mode=open -Dload.rate=2000 -Dload.connections=64 -Dload.seconds=30
+ *     -Dload.mix="GET /=1,GET /styles/style.css=2,GET /app/tasks?name=All=4,POST /app/saveTask=1"
+ * </pre>
+ */
+public class LoadGenerator {
+    /**
+     * A request of the mix, chosen in proportion to its weight.
+     * @param method HTTP method
+     * @param path target of the request, path and query
+     * @param body body sent as JSON, null for none
+     * @param weight relative frequency of the request in the mix
+     */
+    public record Target(String method, String path, String body, int weight) {
+        public Target {
+            if (weight <= 0) throw new IllegalArgumentException("Load: weight must be positive");
+        }
+    }
+
+    /**
+     * Result of a run.
+     * @param requests responses received, including errors
+     * @param errors responses with status 400 or above, and requests that failed with an I/O error
+     * @param seconds duration of the measurement
+     * @param latencies latency of each response in nanoseconds, sorted
+     */
+    public record Report(long requests, long errors, double seconds, long[] latencies) {
+        /**
+         * Gets the responses per second.
+         * @return throughput of the run
+         */
+        public double throughput() {
+            return requests / seconds;
+        }
+
+        /**
+         * Gets a percentile of the latencies.
+         * @param percentile from 0 to 100
+         * @return latency in milliseconds, 0 if there were no responses
+         */
+        public double percentile(double percentile) {
+            if (latencies.length == 0) return 0;
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("requests=%d errors=%d throughput=%.1f/s p50=%.3fms p90=%.3fms p99=%.3fms p99.9=%.3fms max=%.3fms",
+                    requests, errors, throughput(), percentile(50), percentile(90), percentile(99), percentile(99.9), percentile(100));
+        }
+    }
+
+    private final String host;
+    private final int port;
+    private final Target[] targets;
+    private final int totalWeight;
+    private final URLConnection reader;
+
+    /**
+     * @param host host of the server
+     * @param port port of the server
+     * @param mix requests sent, chosen at random by their weights
+     */
+    public LoadGenerator(String host, int port, List<Target> mix) {
+        if (mix.isEmpty()) throw new IllegalArgumentException("Load: the mix cannot be empty");
+        this.host = host;
+        this.port = port;
+        this.targets = mix.toArray(new Target[0]);
+        this.totalWeight = mix.stream().mapToInt(Target::weight).sum();
+        this.reader = new URLConnection(port);
+    }
+
+    /**
+     * Parses a mix written as "METHOD path=weight" entries separated by commas, POST requests send a new task.
+     * @param mix the mix, for example "GET /=1,GET /app/tasks?name=All=3,POST /app/saveTask=1"
+     * @return the targets of the mix
+     */
+    public static List<Target> parseMix(String mix) {
+        List<Target> targets = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            entry = entry.trim();
+            int space = entry.indexOf(' ');
+            int equals = entry.lastIndexOf('=');
+            if (space < 0 || equals < space) throw new IllegalArgumentException("Load: invalid mix entry " + entry);
+            String method = entry.substring(0, space);
+            String body = method.equals("POST") ? "{\"name\":\"load\",\"description\":\"sent by the load generator\"}" : null;
+            targets.add(new Target(method, entry.substring(space + 1, equals).trim(), body, Integer.parseInt(entry.substring(equals + 1).trim())));
+        }
+        return targets;
+    }
+
+    /**
+     * Runs clients that send their next request as soon as they receive the previous response.
+     * @param clients number of concurrent clients, one connection each
+     * @param warmup time spent before measuring
+     * @param duration time measured
+     * @return report of the measured responses
+     * @throws InterruptedException if interrupted while waiting for the clients
+     */
+    public Report closedLoop(int clients, Duration warmup, Duration duration) throws InterruptedException {
+        if (clients <= 0) throw new IllegalArgumentException("Load: clients must be positive");
+        long measureFrom = System.nanoTime() + warmup.toNanos();
+        long end = measureFrom + duration.toNanos();
+        Client[] all = new Client[clients];
+        Thread[] threads = new Thread[clients];
+        for (int i = 0; i < clients; i++) {
+            Client client = all[i] = new Client(measureFrom);
+            threads[i] = Thread.ofVirtual().name("load-", i).start(() -> {
+                while (System.nanoTime() < end) {
+                    long sent = System.nanoTime();
+                    client.send(sent, sent);
+                }
+                client.close();
+            });
+        }
+        for (Thread thread : threads) thread.join();
+        return report(all, duration);
+    }
+
+    /**
+     * Sends requests at a fixed rate, each one due at its own time, over a pool of connections.
+     * When every connection is busy the due requests wait for one and their wait is part of their latency.
+     * @param ratePerSecond requests due per second
+     * @param connections connections that send the requests, the most requests in flight at a time
+     * @param warmup time spent before measuring
+     * @param duration time measured
+     * @return report of the measured responses
+     * @throws InterruptedException if interrupted while waiting for the connections
+     */
+    public Report openLoop(double ratePerSecond, int connections, Duration warmup, Duration duration) throws InterruptedException {
+        if (ratePerSecond <= 0 || connections <= 0) throw new IllegalArgumentException("Load: rate and connections must be positive");
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+        long start = System.nanoTime();
+        long measureFrom = start + warmup.toNanos();
+        long end = measureFrom + duration.toNanos();
+        AtomicLong next = new AtomicLong();
+        Client[] all = new Client[connections];
+        Thread[] threads = new Thread[connections];
+        for (int i = 0; i < connections; i++) {
+            Client client = all[i] = new Client(measureFrom);
+            threads[i] = Thread.ofVirtual().name("load-", i).start(() -> {
+                while (true) {
+                    long due = start + next.getAndIncrement() * interval;
+                    if (due >= end) break;
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) LockSupport.parkNanos(wait);
+                    client.send(due, System.nanoTime());
+                }
+                client.close();
+            });
+        }
+        for (Thread thread : threads) thread.join();
+        return report(all, duration);
+    }
+
+    private Report report(Client[] clients, Duration duration) {
+        long requests = 0, errors = 0;
+        int count = 0;
+        for (Client client : clients) {
+            requests += client.requests;
+            errors += client.errors;
+            count += client.count;
+        }
+        long[] latencies = new long[count];
+        int position = 0;
+        for (Client client : clients) {
+            System.arraycopy(client.latencies, 0, latencies, position, client.count);
+            position += client.count;
+        }
+        Arrays.sort(latencies);
+        return new Report(requests, errors, duration.toNanos() / 1e9, latencies);
+    }
+
+    private Target pick() {
+        int value = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (Target target : targets) {
+            value -= target.weight();
+            if (value < 0) return target;
+        }
+        return targets[targets.length - 1];
+    }
+
+    /**
+     * A keep-alive connection and the latencies it measured, used by a single thread.
+     */
+    private final class Client {
+        final long measureFrom;
+        Socket socket;
+        InputStream in;
+        OutputStream out;
+        long[] latencies = new long[1024];
+        int count;
+        long requests;
+        long errors;
+
+        Client(long measureFrom) {
+            this.measureFrom = measureFrom;
+        }
+
+        /**
+         * Sends a request of the mix and waits for its response.
+         * @param due time the request was due, the latency is measured from it
+         * @param sent time the request is sent
+         */
+        void send(long due, long sent) {
+            Target target = pick();
+            boolean failed;
+            try {
+                if (socket == null) connect();
+                byte[] body = target.body() == null ? new byte[0] : target.body().getBytes(StandardCharsets.UTF_8);
+                String head = target.method() + " " + target.path() + " HTTP/1.1\r\nHost: " + host + ":" + port
+                        + "\r\nAccept-Encoding: gzip\r\n"
+                        + (body.length > 0 ? "Content-Type: application/json\r\nContent-Length: " + body.length + "\r\n" : "")
+                        + "\r\n";
+                out.write(head.getBytes(StandardCharsets.ISO_8859_1));
+                out.write(body);
+                out.flush();
+                Map<String, String> response = reader.readRawResponse(in);
+                String status = response.get("status");
+                if (!status.startsWith("HTTP/")) throw new IOException("Connection closed by the server");
+                failed = Integer.parseInt(status.substring(9, 12)) >= 400;
+                if ("close".equalsIgnoreCase(response.get("connection"))) close();
+            } catch (IOException | RuntimeException e) {
+                failed = true;
+                close();
+            }
+            long now = System.nanoTime();
+            if (sent < measureFrom) return;
+            requests++;
+            if (failed) errors++;
+            if (count == latencies.length) latencies = Arrays.copyOf(latencies, count * 2);
+            latencies[count++] = now - due;
+        }
+
+        void connect() throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(10000);
+            socket.connect(new InetSocketAddress(host, port), 5000);
+            in = new BufferedInputStream(socket.getInputStream());
+            out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        void close() {
+            if (socket == null) return;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            socket = null;
+        }
+    }
+
+    /**
+     * Starts the demo application in this process and runs the workload configured with system properties:
+     * load.mode (open or closed), load.rate, load.connections, load.clients, load.seconds, load.warmup and load.mix.
+     * @param args not used
+     * @throws Exception if the server does not start
+     */
+    public static void main(String[] args) throws Exception {
+        int port = 35000;
+        Thread server = new Thread(() -> Main.main(new String[0]), "load-server");
+        server.setDaemon(true);
+        server.start();
+        waitForPort("localhost", port);
+        List<Target> mix = parseMix(System.getProperty("load.mix",
+                "GET /=1,GET /styles/style.css=2,GET /scripts/script.js=2,GET /images/logo.png=1,GET /app/tasks?name=All&limit=20=4,POST /app/saveTask=1"));
+        LoadGenerator generator = new LoadGenerator("localhost", port, mix);
+        Duration warmup = Duration.ofSeconds(Long.getLong("load.warmup", 5));
+        Duration duration = Duration.ofSeconds(Long.getLong("load.seconds", 30));
+        Report report;
+        if (System.getProperty("load.mode", "closed").equals("open")) {
+            double rate = Double.parseDouble(System.getProperty("load.rate", "1000"));
+            report = generator.openLoop(rate, Integer.getInteger("load.connections", 64), warmup, duration);
+        } else {
+            report = generator.closedLoop(Integer.getInteger("load.clients", 16), warmup, duration);
+        }
+        System.out.println(report);
+        System.exit(0);
+    }
+
+    /**
+     * Waits until a server accepts connections on a port.
+     * @param host host of the server
+     * @param port port of the server
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IOException if nothing listens on the port after ten seconds
+     */
+    public static void waitForPort(String host, int port) throws InterruptedException, IOException {
+        for (int i = 0; i < 200; i++) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(host, port), 100);
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IOException("Nothing listens on " + host + ":" + port);
+    }
+}
@@ -3,6 +3,9 @@ package edu.eci.arep.connection;
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 
 public class URLConnection {
     int port;
@@ -52,4 +55,47 @@ public class URLConnection {
         }
         return response.toString();
     }
+
+    /**
+     * Reads one response from a raw socket stream, headers are stored in lower case
+     * and the body is stored under the key "body". Chunked bodies are decoded, their trailers
+     * are stored with the headers.
+     * @param in input stream of the socket
+     * @return status, headers and body of the response
+     */
+    public Map<String, String> readRawResponse(InputStream in) throws IOException {
+        Map<String, String> response = new HashMap<>();
+        response.put("status", readLine(in));
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            String[] header = line.split(":", 2);
+            response.put(header[0].trim().toLowerCase(), header[1].trim());
+        }
+        if ("chunked".equals(response.get("transfer-encoding"))) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            int size;
+            while ((size = Integer.parseInt(readLine(in).trim(), 16)) > 0) {
+                body.write(in.readNBytes(size));
+                readLine(in);
+            }
+            while (!(line = readLine(in)).isEmpty()) {
+                String[] trailer = line.split(":", 2);
+                response.put(trailer[0].trim().toLowerCase(), trailer[1].trim());
+            }
+            response.put("body", body.toString(StandardCharsets.UTF_8));
+            return response;
+        }
+        int length = Integer.parseInt(response.getOrDefault("content-length", "0"));
+        response.put("body", new String(in.readNBytes(length), StandardCharsets.UTF_8));
+        return response;
+    }
+
+    private String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            if (c != '\r') line.write(c);
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
 }